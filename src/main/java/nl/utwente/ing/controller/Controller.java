@@ -1,10 +1,12 @@
 package nl.utwente.ing.controller;
 
+import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.List;
 
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageNotReadableException;
@@ -22,6 +24,7 @@ import nl.utwente.ing.database.DatabaseCommunication;
 import nl.utwente.ing.model.CandleStick;
 import nl.utwente.ing.model.Category;
 import nl.utwente.ing.model.CategoryRule;
+import nl.utwente.ing.model.HistoryJob;
 import nl.utwente.ing.model.Message;
 import nl.utwente.ing.model.MessageRule;
 import nl.utwente.ing.model.PaymentRequest;
@@ -33,6 +36,9 @@ import nl.utwente.ing.model.Transaction;
 @RestController
 @RequestMapping(value = "/api/v1" , produces = "application/json", consumes = "application/json")
 public class Controller {
+	@Autowired
+	private ResponseCache cache;
+	
 	// ---------------- Helper Methods --------------------
 	/**
 	 * Checks if the session id is valid
@@ -226,7 +232,8 @@ public class Controller {
 			@RequestHeader(value = "X-session-ID", required=false) String X_session_ID) {
 		int sessionId = Integer.parseInt(checkSession(X_session_ID, session_id));
 		
-		return DatabaseCommunication.getAllCategories(sessionId);
+		return cache.get(sessionId, "categories", "", DatabaseCommunication.getDataVersion(sessionId),
+				() -> DatabaseCommunication.getAllCategories(sessionId), Category::copy);
 	}
 	
 	// POST
@@ -309,9 +316,7 @@ public class Controller {
 	// POST
 	@RequestMapping(value = "/sessions", method = RequestMethod.POST, produces = "application/json", consumes = "*")
 	public String getSessionId() {
-		// One more than the maximum session Id present.
-		int newSessionId = DatabaseCommunication.getMaxSessionId() + 1;
-		DatabaseCommunication.addSession(newSessionId);
+		int newSessionId = DatabaseCommunication.createSession();
 		return "{\n" + 
 				"  \"id\": \"" + newSessionId + "\"\n" + 
 				"}";
@@ -325,7 +330,8 @@ public class Controller {
 			@RequestHeader(value = "X-session-ID", required=false) String X_session_ID) {
 		int sessionId = Integer.parseInt(checkSession(X_session_ID, session_id));
 		
-		return DatabaseCommunication.getAllCategoryRules(sessionId);
+		return cache.get(sessionId, "categoryRules", "", DatabaseCommunication.getDataVersion(sessionId),
+				() -> DatabaseCommunication.getAllCategoryRules(sessionId), CategoryRule::copy);
 	}
 	
 	// POST
@@ -348,6 +354,7 @@ public class Controller {
 		CategoryRule addedCategoryRule = DatabaseCommunication.addCategoryRule(categoryRule, sessionId);
 		
 		// If it is apply on history, try to apply it on previous transactions
+		// This runs in the background, its progress is available at /categoryRules/{id}/history
 		if (addedCategoryRule.isApplyOnHistory() && DatabaseCommunication.getCategory(addedCategoryRule.getCategory_id(), sessionId)!= null) {
 			DatabaseCommunication.applyCategoryRuleOnHistory(addedCategoryRule, sessionId);
 		}
@@ -372,6 +379,23 @@ public class Controller {
 		return categoryRule;
 	}
 	
+	// GET
+	@RequestMapping("/categoryRules/{id}/history")
+	public HistoryJob getCategoryRuleHistoryJob(
+			@PathVariable int id,
+			@RequestParam(value="session_id", required =false) String session_id,
+			@RequestHeader(value = "X-session-ID", required=false) String X_session_ID) {
+		int sessionId = Integer.parseInt(checkSession(X_session_ID, session_id));
+		
+		
+		HistoryJob job = DatabaseCommunication.getHistoryJob(id, sessionId);
+		if (job == null) {
+			throw new ItemNotFound();
+		}
+		
+		return job;
+	}
+	
 	// PUT
 	@RequestMapping(method = RequestMethod.PUT, value = "/categoryRules/{id}")
 	public ResponseEntity<CategoryRule> putCategoryRule(
@@ -430,16 +454,20 @@ public class Controller {
 		// Maximum value
 		intervals = Math.min(intervals, 200);
 		
-		ChronoUnit time = null;
+		TimeInterval timeInterval = null;
 		
 		try {
-			time = TimeInterval.valueOf(interval.toUpperCase()).getUnit();
+			timeInterval = TimeInterval.valueOf(interval.toUpperCase());
 		} catch (IllegalArgumentException e) {
 			throw new InvalidInputException();
 		}
+		ChronoUnit time = timeInterval.getUnit();
+		int nrIntervals = intervals;
 		
-		
-		return DatabaseCommunication.getBalanceHistory(sessionId, time, intervals);
+		// The intervals also move along with the current time
+		String params = timeInterval + "&" + nrIntervals + "&" + timeInterval.truncate(Instant.now().getEpochSecond());
+		return cache.get(sessionId, "balance/history", params, DatabaseCommunication.getDataVersion(sessionId),
+				() -> DatabaseCommunication.getBalanceHistory(sessionId, time, nrIntervals), CandleStick::copy);
 	}
 	// ---------------- Saving Goals -----------------
 	// GET
@@ -450,7 +478,8 @@ public class Controller {
 		int sessionId = Integer.parseInt(checkSession(X_session_ID, session_id));
 		
 		
-		return DatabaseCommunication.getAllSavingGoals(sessionId);
+		return cache.get(sessionId, "savingGoals", "", DatabaseCommunication.getDataVersion(sessionId),
+				() -> DatabaseCommunication.getAllSavingGoals(sessionId), SavingGoal::copy);
 	}
 	
 	// POST
@@ -498,7 +527,9 @@ public class Controller {
 		int sessionId = Integer.parseInt(checkSession(X_session_ID, session_id));
 		
 		
-		return DatabaseCommunication.getAllPaymentRequests(sessionId);
+		return cache.get(sessionId, "paymentRequests", "", DatabaseCommunication.getDataVersion(sessionId),
+				() -> DatabaseCommunication.getAllPaymentRequests(sessionId), PaymentRequest::copy,
+				pr -> 1 + pr.getTransactions().size());
 	}
 	
 	// POST
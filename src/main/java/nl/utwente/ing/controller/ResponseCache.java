@@ -0,0 +1,181 @@
+package nl.utwente.ing.controller;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.function.UnaryOperator;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Cache for the responses of endpoints that are polled much more often than their data changes.
+ *
+ * Responses are kept per session, endpoint and parameters, together with the version of the data
+ * of the session they were computed at. A change to the data gives the session a new version, so
+ * older responses are never returned again and are evicted once the cache is full, least recently
+ * used first. The cache is bounded by the number of model objects in the cached responses rather
+ * than by the number of responses, since one long history takes as much memory as many short ones.
+ * Responses that could not be computed are not cached, and every request gets its own copy of a
+ * cached response. The hit, miss and eviction counts are exposed over JMX.
+ */
+@Component
+@ManagedResource(objectName = "nl.utwente.ing:type=Cache,name=ResponseCache")
+public class ResponseCache {
+	private final int maxObjects;
+	private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	// Number of model objects in all cached responses
+	private int objects;
+
+	// Metrics
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	public ResponseCache(@Value("${response-cache.max-objects:100000}") int maxObjects) {
+		this.maxObjects = maxObjects;
+	}
+
+	/**
+	 * Returns a copy of the cached response, or computes and caches it if there is none for the given version.
+	 * Every element of the response counts as one object.
+	 * @param sessionId
+	 * 		Session the response belongs to
+	 * @param endpoint
+	 * 		Endpoint that is requested
+	 * @param params
+	 * 		All parameters the response depends on
+	 * @param version
+	 * 		Version of the data of the session, read before the response is computed
+	 * @param loader
+	 * 		Computes the response, throws if it could not be computed
+	 * @param copy
+	 * 		Copies an element of the response
+	 * @return
+	 * 		The response, which the caller may change
+	 */
+	public <T> List<T> get(int sessionId, String endpoint, String params, long version, Supplier<List<T>> loader,
+			UnaryOperator<T> copy) {
+		return get(sessionId, endpoint, params, version, loader, copy, element -> 1);
+	}
+
+	/**
+	 * Same as the other get, for responses whose elements contain other model objects.
+	 * @param weigher
+	 * 		Gives the number of model objects in an element of the response
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> List<T> get(int sessionId, String endpoint, String params, long version, Supplier<List<T>> loader,
+			UnaryOperator<T> copy, ToIntFunction<T> weigher) {
+		String key = sessionId + "/" + endpoint + "?" + params + "#" + version;
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry != null) {
+				hits++;
+				return copy((List<T>) entry.response, copy);
+			}
+			misses++;
+		}
+
+		List<T> response = loader.get();
+		// An empty response still takes an entry
+		int weight = 1;
+		for (T element : response) {
+			weight += weigher.applyAsInt(element);
+		}
+		if (weight <= maxObjects) {
+			synchronized (this) {
+				Entry previous = entries.put(key, new Entry(response, weight));
+				objects += weight - (previous == null ? 0 : previous.weight);
+				evict();
+			}
+		}
+		return copy(response, copy);
+	}
+
+	/**
+	 * Removes the least recently used responses until the cache is no longer over its size.
+	 */
+	private void evict() {
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (objects > maxObjects && iterator.hasNext()) {
+			objects -= iterator.next().weight;
+			iterator.remove();
+			evictions++;
+		}
+	}
+
+	private static <T> List<T> copy(List<T> response, UnaryOperator<T> copy) {
+		List<T> result = new ArrayList<>(response.size());
+		for (T element : response) {
+			result.add(copy.apply(element));
+		}
+		return result;
+	}
+
+	@ManagedOperation(description = "Removes all cached responses")
+	public synchronized void clear() {
+		entries.clear();
+		objects = 0;
+	}
+
+	/*
+	 * -------------------- Metrics --------------------
+	 */
+
+	@ManagedAttribute(description = "Maximum number of model objects in the cached responses")
+	public int getMaxObjects() {
+		return maxObjects;
+	}
+
+	@ManagedAttribute(description = "Number of model objects in the cached responses")
+	public synchronized int getObjects() {
+		return objects;
+	}
+
+	@ManagedAttribute(description = "Number of cached responses")
+	public synchronized int getSize() {
+		return entries.size();
+	}
+
+	@ManagedAttribute(description = "Number of requests answered from the cache")
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	@ManagedAttribute(description = "Number of requests that had to be computed")
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	@ManagedAttribute(description = "Fraction of the requests answered from the cache")
+	public synchronized double getHitRatio() {
+		long total = hits + misses;
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	@ManagedAttribute(description = "Number of responses removed because the cache was full")
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * A cached response together with the number of model objects in it.
+	 */
+	private static class Entry {
+		private final List<?> response;
+		private final int weight;
+
+		Entry(List<?> response, int weight) {
+			this.response = response;
+			this.weight = weight;
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package nl.utwente.ing.database;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import nl.utwente.ing.model.CategoryRule;
+import nl.utwente.ing.model.TransactionType;
+
+/**
+ * The category rules of a session, compiled for matching them against new transactions.
+ *
+ * A rule matches a transaction if its description and IBAN occur in the description and IBAN of the
+ * transaction and the types are equal. Instead of checking every rule, the descriptions and the IBANs
+ * of all rules are each compiled into one Aho-Corasick automaton. One scan over the description and
+ * one over the IBAN of a transaction then find all rules whose texts occur in them, in time linear in
+ * the length of the texts and the number of matches.
+ */
+public class CategoryRuleMatcher {
+	private final List<CategoryRule> rules;
+	private final long version;
+	private final Automaton descriptions;
+	private final Automaton iBANs;
+	// The rules per transaction type
+	private final Map<TransactionType, BitSet> types = new HashMap<>();
+
+	/**
+	 * @param rules
+	 * 		The category rules of the session, in the order in which they are applied
+	 * @param version
+	 * 		Version of the category rules of the session the matcher is compiled from
+	 */
+	public CategoryRuleMatcher(List<CategoryRule> rules, long version) {
+		this.rules = rules;
+		this.version = version;
+
+		List<String> descriptionPatterns = new ArrayList<>();
+		List<String> iBANPatterns = new ArrayList<>();
+		for (int i = 0; i < rules.size(); i++) {
+			CategoryRule rule = rules.get(i);
+			descriptionPatterns.add(rule.getDescription());
+			iBANPatterns.add(rule.getiBAN());
+			types.computeIfAbsent(rule.getType(), type -> new BitSet()).set(i);
+		}
+		descriptions = new Automaton(descriptionPatterns);
+		iBANs = new Automaton(iBANPatterns);
+	}
+
+	/**
+	 * @return the version of the category rules the matcher was compiled from
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Finds the rules that match a transaction.
+	 * @return
+	 * 		The matching rules, in the order in which they are applied
+	 */
+	public List<CategoryRule> match(String description, String iBAN, TransactionType type) {
+		List<CategoryRule> result = new ArrayList<>();
+		BitSet candidates = types.get(type);
+		if (candidates == null || description == null || iBAN == null) {
+			return result;
+		}
+		BitSet matches = descriptions.scan(description);
+		matches.and(candidates);
+		if (!matches.isEmpty()) {
+			matches.and(iBANs.scan(iBAN));
+		}
+		for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+			result.add(rules.get(i));
+		}
+		return result;
+	}
+
+	/**
+	 * Aho-Corasick automaton over the patterns of all rules. Every distinct pattern is stored once,
+	 * together with the rules that use it.
+	 */
+	private static class Automaton {
+		private final List<Map<Character, Integer>> transitions = new ArrayList<>();
+		private final List<Integer> failure = new ArrayList<>();
+		// Closest state reachable by failure links that ends a pattern, or -1
+		private final List<Integer> output = new ArrayList<>();
+		// Pattern ending in every state, or -1
+		private final List<Integer> patternAt = new ArrayList<>();
+		// The rules that use every distinct pattern
+		private final List<BitSet> rulesOf = new ArrayList<>();
+		// The rules with an empty pattern, which match every text
+		private final BitSet always = new BitSet();
+		private final int nrRules;
+
+		Automaton(List<String> patterns) {
+			nrRules = patterns.size();
+			addState();
+
+			Map<String, Integer> distinct = new LinkedHashMap<>();
+			for (int rule = 0; rule < patterns.size(); rule++) {
+				String pattern = patterns.get(rule);
+				if (pattern == null) {
+					continue;
+				}
+				if (pattern.isEmpty()) {
+					always.set(rule);
+					continue;
+				}
+				Integer id = distinct.get(pattern);
+				if (id == null) {
+					id = rulesOf.size();
+					distinct.put(pattern, id);
+					rulesOf.add(new BitSet());
+					patternAt.set(insert(pattern), id);
+				}
+				rulesOf.get(id).set(rule);
+			}
+			link();
+		}
+
+		/**
+		 * @return the rules whose pattern occurs in the text
+		 */
+		BitSet scan(String text) {
+			BitSet result = new BitSet(nrRules);
+			result.or(always);
+			BitSet seen = new BitSet(rulesOf.size());
+			int state = 0;
+			for (int i = 0; i < text.length(); i++) {
+				state = next(state, text.charAt(i));
+				int match = patternAt.get(state) >= 0 ? state : output.get(state);
+				// Every state on the output chain is only followed once per pattern
+				while (match > 0 && !seen.get(patternAt.get(match))) {
+					seen.set(patternAt.get(match));
+					result.or(rulesOf.get(patternAt.get(match)));
+					match = output.get(match);
+				}
+			}
+			return result;
+		}
+
+		private int addState() {
+			transitions.add(new HashMap<>());
+			failure.add(0);
+			output.add(-1);
+			patternAt.add(-1);
+			return transitions.size() - 1;
+		}
+
+		private int insert(String pattern) {
+			int state = 0;
+			for (int i = 0; i < pattern.length(); i++) {
+				Integer child = transitions.get(state).get(pattern.charAt(i));
+				if (child == null) {
+					child = addState();
+					transitions.get(state).put(pattern.charAt(i), child);
+				}
+				state = child;
+			}
+			return state;
+		}
+
+		/**
+		 * Computes the failure and output links, breadth first so the links of shorter prefixes are known.
+		 */
+		private void link() {
+			Queue<Integer> queue = new ArrayDeque<>(transitions.get(0).values());
+			while (!queue.isEmpty()) {
+				int state = queue.poll();
+				for (Map.Entry<Character, Integer> edge : transitions.get(state).entrySet()) {
+					int child = edge.getValue();
+					int fail = state == 0 ? 0 : next(failure.get(state), edge.getKey());
+					failure.set(child, fail);
+					output.set(child, patternAt.get(fail) >= 0 ? fail : output.get(fail));
+					queue.add(child);
+				}
+			}
+		}
+
+		private int next(int state, char c) {
+			while (true) {
+				Integer child = transitions.get(state).get(c);
+				if (child != null) {
+					return child;
+				}
+				if (state == 0) {
+					return 0;
+				}
+				state = failure.get(state);
+			}
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package nl.utwente.ing.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Connection handed out for a long-lived physical connection. Closing the handle does not close
+ * the physical connection but hands it back to its owner. Statements created through the handle
+ * are closed at that point, since the physical connection itself stays open. Statements that were
+ * still open by then have been leaked by their user and are counted.
+ */
+class ConnectionHandle implements InvocationHandler {
+	private static final AtomicLong leakedStatements = new AtomicLong();
+
+	private final Connection physical;
+	private final Consumer<Connection> onClose;
+	private final List<Statement> statements = new ArrayList<>();
+	private boolean released = false;
+
+	private ConnectionHandle(Connection physical, Consumer<Connection> onClose) {
+		this.physical = physical;
+		this.onClose = onClose;
+	}
+
+	/**
+	 * @param physical
+	 * 		The connection to hand out
+	 * @param onClose
+	 * 		Called with the physical connection when the handle is closed
+	 * @return
+	 * 		Connection that delegates to the physical connection until it is closed
+	 */
+	static Connection wrap(Connection physical, Consumer<Connection> onClose) {
+		return (Connection) Proxy.newProxyInstance(ConnectionHandle.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new ConnectionHandle(physical, onClose));
+	}
+
+	/**
+	 * @return number of statements that were not closed before the connection they belong to was closed
+	 */
+	static long getLeakedStatements() {
+		return leakedStatements.get();
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		String name = method.getName();
+		if (name.equals("close")) {
+			if (!released) {
+				released = true;
+				closeStatements();
+				onClose.accept(physical);
+			}
+			return null;
+		} else if (name.equals("isClosed")) {
+			return released || physical.isClosed();
+		} else if (name.equals("equals")) {
+			return proxy == args[0];
+		} else if (name.equals("hashCode")) {
+			return System.identityHashCode(proxy);
+		} else if (name.equals("toString")) {
+			return "Handle" + physical.toString();
+		}
+
+		if (released) {
+			throw new SQLException("Connection has already been closed");
+		}
+
+		try {
+			Object result = method.invoke(physical, args);
+			if (result instanceof Statement) {
+				statements.add((Statement) result);
+			}
+			return result;
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	private void closeStatements() {
+		for (Statement stmt : statements) {
+			try {
+				if (!stmt.isClosed()) {
+					leakedStatements.incrementAndGet();
+				}
+				stmt.close();
+			} catch (SQLException e) {
+				System.out.println(e.getMessage());
+			}
+		}
+		statements.clear();
+	}
+}
@@ -0,0 +1,224 @@
+package nl.utwente.ing.database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * A bounded pool of long-lived SQLite connections.
+ *
+ * Connections are opened lazily up to the maximum size and the per-connection PRAGMAs
+ * are run once when a connection is created. The connections handed out are wrappers
+ * whose close() returns the underlying connection to the pool instead of closing it.
+ *
+ * A pool can be given the read lock of a lock whose write lock the database writer holds while it
+ * writes. A connection then holds the read lock while it is handed out, so readers wait for the
+ * writer to commit instead of failing or seeing its uncommitted changes. This is needed for an
+ * in-memory database, whose connections share one cache and cannot read while it is being written.
+ */
+public class ConnectionPool {
+	private static final long ACQUIRE_TIMEOUT_SECONDS = 30;
+	private static final int BUSY_TIMEOUT_MILLIS = 5000;
+
+	private final String url;
+	private final int maxSize;
+	private final BlockingQueue<Connection> idle;
+	private final AtomicInteger created = new AtomicInteger();
+	private final AtomicInteger inUse = new AtomicInteger();
+	// Held by every connection that is handed out, null if readers do not have to wait for the writer
+	private final Lock readLock;
+
+	// Metrics
+	private final AtomicLong acquisitions = new AtomicLong();
+	private final AtomicLong totalWaitNanos = new AtomicLong();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+
+	private volatile boolean closed = false;
+
+	public ConnectionPool(String url, int maxSize) {
+		this(url, maxSize, null);
+	}
+
+	/**
+	 * @param readLock
+	 * 		Lock that is held while a connection is handed out, or null
+	 */
+	public ConnectionPool(String url, int maxSize, Lock readLock) {
+		this.url = url;
+		this.maxSize = Math.max(maxSize, 1);
+		this.idle = new ArrayBlockingQueue<>(this.maxSize);
+		this.readLock = readLock;
+	}
+
+	/**
+	 * Hands out a warm connection, opening a new one if the pool is not full yet
+	 * and waiting for one to be returned otherwise.
+	 * @return
+	 * 		Connection that returns to the pool when it is closed
+	 * @throws SQLException
+	 * 		if no connection became available in time
+	 */
+	public Connection getConnection() throws SQLException {
+		if (closed) {
+			throw new SQLException("Connection pool is closed");
+		}
+		long start = System.nanoTime();
+		if (readLock != null) {
+			readLock.lock();
+		}
+
+		Connection physical;
+		try {
+			physical = acquire();
+		} catch (SQLException | RuntimeException e) {
+			if (readLock != null) {
+				readLock.unlock();
+			}
+			throw e;
+		}
+
+		recordWait(System.nanoTime() - start);
+		inUse.incrementAndGet();
+		return ConnectionHandle.wrap(physical, this::release);
+	}
+
+	/**
+	 * Closes all idle connections. Connections that are still in use are closed when they are returned.
+	 */
+	public void close() {
+		closed = true;
+		Connection conn;
+		while ((conn = idle.poll()) != null) {
+			closePhysical(conn);
+		}
+	}
+
+	private Connection acquire() throws SQLException {
+		Connection physical = idle.poll();
+		if (physical == null) {
+			physical = tryCreate();
+		}
+		if (physical == null) {
+			try {
+				physical = idle.poll(ACQUIRE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (physical == null) {
+				throw new SQLException("Timed out waiting for a database connection");
+			}
+		}
+		return physical;
+	}
+
+	private Connection tryCreate() throws SQLException {
+		while (true) {
+			int current = created.get();
+			if (current >= maxSize) {
+				return null;
+			}
+			if (created.compareAndSet(current, current + 1)) {
+				try {
+					return open(url);
+				} catch (SQLException e) {
+					created.decrementAndGet();
+					throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Opens a new physical connection and runs the per-connection PRAGMAs on it.
+	 */
+	static Connection open(String url) throws SQLException {
+		Connection conn = DriverManager.getConnection(url);
+		try (Statement stmt = conn.createStatement()) {
+			stmt.executeUpdate("PRAGMA foreign_keys = ON");
+			stmt.executeUpdate("PRAGMA busy_timeout = " + BUSY_TIMEOUT_MILLIS);
+		}
+		return conn;
+	}
+
+	private void release(Connection physical) {
+		inUse.decrementAndGet();
+		boolean healthy;
+		try {
+			if (!physical.getAutoCommit()) {
+				physical.rollback();
+				physical.setAutoCommit(true);
+			}
+			healthy = !physical.isClosed();
+		} catch (SQLException e) {
+			healthy = false;
+		}
+
+		if (!healthy || closed || !idle.offer(physical)) {
+			closePhysical(physical);
+		}
+		if (readLock != null) {
+			readLock.unlock();
+		}
+	}
+
+	private void closePhysical(Connection physical) {
+		created.decrementAndGet();
+		try {
+			physical.close();
+		} catch (SQLException e) {
+			System.out.println(e.getMessage());
+		}
+	}
+
+	private void recordWait(long nanos) {
+		acquisitions.incrementAndGet();
+		totalWaitNanos.addAndGet(nanos);
+		long max;
+		while (nanos > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, nanos)) {
+			// retry
+		}
+	}
+
+	/*
+	 * -------------------- Metrics --------------------
+	 */
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public int getOpenConnections() {
+		return created.get();
+	}
+
+	public int getActiveConnections() {
+		return inUse.get();
+	}
+
+	/**
+	 * @return fraction of the maximum pool size that is currently handed out
+	 */
+	public double getUtilisation() {
+		return (double) inUse.get() / maxSize;
+	}
+
+	public long getAcquisitions() {
+		return acquisitions.get();
+	}
+
+	public double getAverageWaitMillis() {
+		long count = acquisitions.get();
+		return count == 0 ? 0 : totalWaitNanos.get() / (count * 1_000_000.0);
+	}
+
+	public double getMaxWaitMillis() {
+		return maxWaitNanos.get() / 1_000_000.0;
+	}
+}
@@ -1,174 +1,398 @@
 package nl.utwente.ing.database;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 
+import nl.utwente.ing.model.SessionStats;
+
 @Configuration
 public class DBInitializeConfig {
+	/**
+	 * Version of the schema created below, stored in the user_version of the database file.
+	 * Existing files with a lower version are migrated on startup.
+	 */
+	public static final int SCHEMA_VERSION = 6;
+
+	/**
+	 * Columns that hold amounts of money, which are stored in cents since schema version 3.
+	 */
+	private static final String[][] AMOUNT_COLUMNS = {
+			{"transactions", "amount"},
+			{"paymentRequests", "amount"},
+			{"savingGoals", "goal", "savePerMonth", "minBalanceRequired", "balance"},
+			{"messageRules", "value"}
+	};
+
+	/**
+	 * Tables that belong to a session, together with the link tables that were used
+	 * to store the session of their rows before schema version 1.
+	 */
+	private static final String[][] SESSION_TABLES = {
+			{"transactions", "transactionIds"},
+			{"categories", "categoryIds"},
+			{"categoryRules", "categoryRuleIds"},
+			{"savingGoals", "savingGoalIds"},
+			{"paymentRequests", "paymentRequestIds"},
+			{"messages", "messageIds"},
+			{"messageRules", "messageRuleIds"}
+	};
+
+	// sqlite keeps the data in the file at database.url, memory keeps it in memory until shutdown
+	@Value("${database.engine:sqlite}")
+	private String engine;
+
+	@Value("${database.url:" + DatabaseCommunication.URL + "}")
+	private String url;
+
+	@Value("${database.pool-size:" + DatabaseCommunication.DEFAULT_POOL_SIZE + "}")
+	private int poolSize;
+
+	@Value("${database.wal:true}")
+	private boolean wal;
+
 	@PostConstruct
 	public void initialize() {
+		switch (engine) {
+		case "sqlite":
+			DatabaseCommunication.configure(url, poolSize, wal);
+			break;
+		case "memory":
+			DatabaseCommunication.configureInMemory(poolSize);
+			break;
+		default:
+			throw new IllegalStateException("Unknown database.engine '" + engine + "', expected sqlite or memory");
+		}
 		try {
 			Connection connection = DatabaseCommunication.connect();
 			Statement statement = connection.createStatement();
-			
+
+			boolean existing = tableExists(connection, "transactions");
+			int version = getUserVersion(statement);
+
 			connection.setAutoCommit(false);
-			statement.executeUpdate("CREATE TABLE IF NOT EXISTS transactions (" + 
+			statement.executeUpdate("CREATE TABLE IF NOT EXISTS transactions (" +
 					"id integer PRIMARY KEY," +
 					"date integer NOT NULL," +
-					"amount real," + 
+					"amount integer," +
 					"description text NOT NULL," +
 					"externalIBAN text NOT NULL," +
 					"type text NOT NULL," +
-					"categoryID integer," + 
+					"categoryID integer," +
+					"session integer REFERENCES sessions(session)," +
+					"is_internal integer NOT NULL DEFAULT 0," +
 					" FOREIGN KEY(categoryID) REFERENCES categories(id) ON DELETE SET NULL" +
 					")");
-			
-			statement.executeUpdate("CREATE TABLE IF NOT EXISTS categories (" + 
+
+			statement.executeUpdate("CREATE TABLE IF NOT EXISTS categories (" +
 					"id integer PRIMARY KEY," +
-					"name text NOT NULL" +
+					"name text NOT NULL," +
+					"session integer REFERENCES sessions(session)" +
 					")");
-			
-			statement.executeUpdate("CREATE TABLE IF NOT EXISTS paymentRequests (" + 
+
+			statement.executeUpdate("CREATE TABLE IF NOT EXISTS paymentRequests (" +
 					"id integer PRIMARY KEY," +
 					"description text NOT NULL," +
 					"due_date integer NOT NULL," +
-					"amount real NOT NULL," +
+					"amount integer NOT NULL," +
 					"number_of_requests integer NOT NULL," +
-					"filled integer NOT NULL DEFAULT 0" +
-					")");
-			
-			statement.executeUpdate("CREATE TABLE IF NOT EXISTS paymentRequestIds (" + 
-					"session integer NOT NULL," +
-					"id integer NOT NULL, " +
-					"PRIMARY KEY (session,id)," +
-					"FOREIGN KEY (session) REFERENCES sessions(session)," +
-					"FOREIGN KEY (id) REFERENCES paymentRequests(id) ON DELETE CASCADE" + 
+					"filled integer NOT NULL DEFAULT 0," +
+					"session integer REFERENCES sessions(session)," +
+					"paid_count integer NOT NULL DEFAULT 0," +
+					"expiry_notified integer NOT NULL DEFAULT 0" +
 					")");
-			
-			statement.executeUpdate("CREATE TABLE IF NOT EXISTS paymentRequestTransactions (" + 
+
+			statement.executeUpdate("CREATE TABLE IF NOT EXISTS paymentRequestTransactions (" +
 					"paymentRequestId integer," +
 					"transactionId integer," +
 					"PRIMARY KEY(paymentRequestId, transactionID)," +
-					"FOREIGN KEY (paymentRequestId) REFERENCES paymentRequests(id) ON DELETE CASCADE," + 
+					"FOREIGN KEY (paymentRequestId) REFERENCES paymentRequests(id) ON DELETE CASCADE," +
 					"FOREIGN KEY (transactionId) REFERENCES transactions(id) ON DELETE CASCADE" +
 					")");
-			
-			statement.executeUpdate("CREATE TABLE IF NOT EXISTS sessions (" + 
+
+			statement.executeUpdate("CREATE TABLE IF NOT EXISTS sessions (" +
 					"session integer PRIMARY KEY)");
-			
-			statement.executeUpdate("CREATE TABLE IF NOT EXISTS transactionIds (" + 
-					"session integer NOT NULL," +
-					"id integer NOT NULL, " +
-					"PRIMARY KEY (session,id)," +
-					"FOREIGN KEY (session) REFERENCES sessions(session)," +
-					"FOREIGN KEY (id) REFERENCES transactions(id) ON DELETE CASCADE" + 
-					")");
-			
 
-			statement.executeUpdate("CREATE TABLE IF NOT EXISTS internalTransactions (" + 
+			statement.executeUpdate("CREATE TABLE IF NOT EXISTS internalTransactions (" +
 					"savingGoalId integer," +
 					"transactionId integer," +
 					"PRIMARY KEY(savingGoalId, transactionID)," +
-					"FOREIGN KEY (savingGoalId) REFERENCES savingGoals(id) ON DELETE SET NULL," + 
+					"FOREIGN KEY (savingGoalId) REFERENCES savingGoals(id) ON DELETE SET NULL," +
 					"FOREIGN KEY (transactionId) REFERENCES transactions(id) ON DELETE CASCADE" +
 					")");
-			
-			statement.executeUpdate("CREATE TRIGGER IF NOT EXISTS same_session_check " + 
-					"BEFORE INSERT ON internalTransactions WHEN (EXISTS (SELECT * FROM transactionIds ti, savingGoalIds sgi " + 
-					"WHERE ti.id = New.transactionId " + 
-					"AND sgi.id = New.savingGoalId " + 
-					"AND ti.session != sgi.session)) " + 
-					"BEGIN " + 
-					"    SELECT RAISE(FAIL, \"The transaction and the saving goal are from different sessions\"); " + 
-					"END;");
-			
-			statement.executeUpdate("CREATE TABLE IF NOT EXISTS categoryIds (" + 
-					"session integer NOT NULL," +
-					"id integer NOT NULL, " +
-					"PRIMARY KEY (session,id)," +
-					"FOREIGN KEY (session) REFERENCES sessions(session)," +
-					"FOREIGN KEY (id) REFERENCES categories(id) ON DELETE CASCADE" + 
-					")");
-			
-			statement.executeUpdate("CREATE TABLE IF NOT EXISTS categoryRuleIds (" + 
-					"session integer NOT NULL," +
-					"id integer NOT NULL, " +
-					"PRIMARY KEY (session,id)," +
-					"FOREIGN KEY (session) REFERENCES sessions(session)," +
-					"FOREIGN KEY (id) REFERENCES categoryRules(id) ON DELETE CASCADE" + 
-					")");
-			
-			statement.executeUpdate("CREATE TABLE IF NOT EXISTS categoryRules (" + 
+
+			statement.executeUpdate("CREATE TABLE IF NOT EXISTS categoryRules (" +
 					"id integer PRIMARY KEY," +
 					"description text NOT NULL," +
 					"iBAN text NOT NULL," +
 					"type text NOT NULL," +
 					"category_id integer NOT NULL," +
-					"applyOnHistory integer NOT NULL" +
+					"applyOnHistory integer NOT NULL," +
+					"session integer REFERENCES sessions(session)" +
 					")");
-			
-			statement.executeUpdate("CREATE TABLE IF NOT EXISTS savingGoals (" + 
+
+			statement.executeUpdate("CREATE TABLE IF NOT EXISTS savingGoals (" +
 					"id integer PRIMARY KEY," +
 					"name text NOT NULL," +
-					"goal real NOT NULL," +
-					"savePerMonth real NOT NULL," +
-					"minBalanceRequired real NOT NULL," +
-					"balance real NOT NULL" +
+					"goal integer NOT NULL," +
+					"savePerMonth integer NOT NULL," +
+					"minBalanceRequired integer NOT NULL," +
+					"balance integer NOT NULL," +
+					"session integer REFERENCES sessions(session)" +
 					")");
-			
-			statement.executeUpdate("CREATE TABLE IF NOT EXISTS savingGoalIds (" + 
-					"session integer NOT NULL," +
-					"id integer NOT NULL, " +
-					"PRIMARY KEY (session,id)," +
-					"FOREIGN KEY (session) REFERENCES sessions(session)," +
-					"CONSTRAINT savingGoalId" + 
-					"        FOREIGN KEY (id) " + 
-					"        REFERENCES savingGoals (id) ON DELETE CASCADE " + 
-					")");
-			
-			statement.executeUpdate("CREATE TABLE IF NOT EXISTS messages (" + 
+
+			statement.executeUpdate("CREATE TABLE IF NOT EXISTS messages (" +
 					"id integer PRIMARY KEY," +
 					"message text NOT NULL," +
 					"date integer NOT NULL," +
 					"read integer NOT NULL DEFAULT 0," +
-					"type text NOT NULL)");
-			
-			statement.executeUpdate("CREATE TABLE IF NOT EXISTS messageIds (" + 
-					"session integer NOT NULL," +
-					"id integer NOT NULL, " +
-					"PRIMARY KEY (session,id)," +
-					"FOREIGN KEY (session) REFERENCES sessions(session)," +
-					"FOREIGN KEY (id) REFERENCES messages(id) ON DELETE CASCADE" + 
-					")");
-			
-			statement.executeUpdate("CREATE TABLE IF NOT EXISTS messageRules (" + 
+					"type text NOT NULL," +
+					"session integer REFERENCES sessions(session))");
+
+			statement.executeUpdate("CREATE TABLE IF NOT EXISTS messageRules (" +
 					"id integer PRIMARY KEY," +
 					"type text NOT NULL," +
-					"value real NOT NULL," +
-					"category_id integer NOT NULL)");
-			
-			statement.executeUpdate("CREATE TABLE IF NOT EXISTS messageRuleIds (" + 
-					"session integer NOT NULL," +
-					"id integer NOT NULL, " +
-					"PRIMARY KEY (session,id)," +
-					"FOREIGN KEY (session) REFERENCES sessions(session)," +
-					"FOREIGN KEY (id) REFERENCES messageRules(id) ON DELETE CASCADE" + 
-					")");
-			
-			statement.executeUpdate("PRAGMA foreign_keys = ON");
-			
+					"value integer NOT NULL," +
+					"category_id integer NOT NULL," +
+					"session integer REFERENCES sessions(session))");
+
+			statement.executeUpdate("CREATE TABLE IF NOT EXISTS sessionStats (" +
+					"session integer PRIMARY KEY REFERENCES sessions(session)," +
+					"balance integer NOT NULL DEFAULT 0," +
+					"high integer NOT NULL DEFAULT 0," +
+					"low integer NOT NULL DEFAULT 0," +
+					"first_date integer," +
+					"last_date integer," +
+					"count integer NOT NULL DEFAULT 0)");
+
+			statement.executeUpdate("CREATE TABLE IF NOT EXISTS balanceRollups (" +
+					"session integer REFERENCES sessions(session)," +
+					"granularity text NOT NULL," +
+					"bucket_start integer NOT NULL," +
+					"open integer NOT NULL," +
+					"close integer NOT NULL," +
+					"high integer NOT NULL," +
+					"low integer NOT NULL," +
+					"volume integer NOT NULL," +
+					"PRIMARY KEY(session, granularity, bucket_start))");
+
+			if (existing) {
+				migrate(connection, statement, version);
+			}
+
+			statement.executeUpdate("DROP TRIGGER IF EXISTS same_session_check");
+			statement.executeUpdate("CREATE TRIGGER same_session_check " +
+					"BEFORE INSERT ON internalTransactions WHEN (EXISTS (SELECT * FROM transactions t, savingGoals sg " +
+					"WHERE t.id = New.transactionId " +
+					"AND sg.id = New.savingGoalId " +
+					"AND t.session != sg.session)) " +
+					"BEGIN " +
+					"    SELECT RAISE(FAIL, \"The transaction and the saving goal are from different sessions\"); " +
+					"END;");
+
+			// Keep the number of transactions paid for a payment request up to date
+			statement.executeUpdate("DROP TRIGGER IF EXISTS paid_count_insert");
+			statement.executeUpdate("CREATE TRIGGER paid_count_insert " +
+					"AFTER INSERT ON paymentRequestTransactions " +
+					"BEGIN " +
+					"    UPDATE paymentRequests SET paid_count = paid_count + 1 WHERE id = New.paymentRequestId; " +
+					"END;");
+			statement.executeUpdate("DROP TRIGGER IF EXISTS paid_count_delete");
+			statement.executeUpdate("CREATE TRIGGER paid_count_delete " +
+					"AFTER DELETE ON paymentRequestTransactions " +
+					"BEGIN " +
+					"    UPDATE paymentRequests SET paid_count = paid_count - 1 WHERE id = Old.paymentRequestId; " +
+					"END;");
+
+			statement.executeUpdate("CREATE INDEX IF NOT EXISTS transactions_session_date ON transactions(session, date)");
+			statement.executeUpdate("CREATE INDEX IF NOT EXISTS transactions_session_category ON transactions(session, categoryID, type, date)");
+			statement.executeUpdate("CREATE INDEX IF NOT EXISTS categories_session ON categories(session)");
+			statement.executeUpdate("CREATE INDEX IF NOT EXISTS categoryRules_session ON categoryRules(session)");
+			statement.executeUpdate("CREATE INDEX IF NOT EXISTS savingGoals_session ON savingGoals(session)");
+			statement.executeUpdate("CREATE INDEX IF NOT EXISTS paymentRequests_session ON paymentRequests(session)");
+			statement.executeUpdate("CREATE INDEX IF NOT EXISTS paymentRequests_open ON paymentRequests(session, due_date) WHERE filled = 0");
+			statement.executeUpdate("CREATE INDEX IF NOT EXISTS paymentRequests_deadline ON paymentRequests(due_date) "
+					+ "WHERE filled = 0 AND expiry_notified = 0");
+			statement.executeUpdate("CREATE INDEX IF NOT EXISTS messages_session ON messages(session, read)");
+			statement.executeUpdate("CREATE INDEX IF NOT EXISTS messageRules_session ON messageRules(session)");
+			statement.executeUpdate("CREATE INDEX IF NOT EXISTS internalTransactions_transaction ON internalTransactions(transactionId)");
+			statement.executeUpdate("CREATE INDEX IF NOT EXISTS paymentRequestTransactions_transaction ON paymentRequestTransactions(transactionId)");
+
+			statement.executeUpdate("PRAGMA user_version = " + SCHEMA_VERSION);
+
 			connection.commit();
 			connection.setAutoCommit(true);
 			statement.close();
 			connection.close();
+			DatabaseCommunication.loadSessions();
 			System.out.println("Tables initialized!");
 		} catch (SQLException e) {
 			e.printStackTrace();
 		}
 	}
+
+	@PreDestroy
+	public void close() {
+		DatabaseCommunication.shutdown();
+	}
+
+	/**
+	 * Brings the tables of an existing database file up to the current schema version.
+	 * The migration runs inside the initialization transaction, so it is applied completely or not at all.
+	 * @param version
+	 * 		The schema version of the existing file
+	 */
+	private void migrate(Connection connection, Statement statement, int version) throws SQLException {
+		if (version < 1) {
+			// Store the session on every row instead of in a separate link table
+			for (String[] tables : SESSION_TABLES) {
+				String table = tables[0];
+				String idTable = tables[1];
+				if (!columnExists(connection, table, "session")) {
+					statement.executeUpdate("ALTER TABLE " + table + " ADD COLUMN session integer REFERENCES sessions(session)");
+				}
+				if (tableExists(connection, idTable)) {
+					statement.executeUpdate("UPDATE " + table + " SET session = "
+							+ "(SELECT i.session FROM " + idTable + " i WHERE i.id = " + table + ".id) "
+							+ "WHERE session IS NULL");
+				}
+			}
+
+			// Flag internal transactions instead of looking them up in internalTransactions
+			if (!columnExists(connection, "transactions", "is_internal")) {
+				statement.executeUpdate("ALTER TABLE transactions ADD COLUMN is_internal integer NOT NULL DEFAULT 0");
+			}
+			statement.executeUpdate("UPDATE transactions SET is_internal = 1 "
+					+ "WHERE id IN (SELECT transactionId FROM internalTransactions)");
+			System.out.println("Migrated database to schema version 1");
+		}
+		if (version < 2) {
+			// Count the transactions paid for every payment request
+			if (!columnExists(connection, "paymentRequests", "paid_count")) {
+				statement.executeUpdate("ALTER TABLE paymentRequests ADD COLUMN paid_count integer NOT NULL DEFAULT 0");
+			}
+			statement.executeUpdate("UPDATE paymentRequests SET paid_count = "
+					+ "(SELECT count(*) FROM paymentRequestTransactions p WHERE p.paymentRequestId = paymentRequests.id)");
+			System.out.println("Migrated database to schema version 2");
+		}
+		if (version < 3) {
+			// Store amounts as a whole number of cents
+			for (String[] columns : AMOUNT_COLUMNS) {
+				StringBuilder sql = new StringBuilder("UPDATE " + columns[0] + " SET ");
+				for (int i = 1; i < columns.length; i++) {
+					if (i > 1) {
+						sql.append(", ");
+					}
+					sql.append(columns[i] + " = CAST(round(" + columns[i] + " * 100) AS INTEGER)");
+				}
+				statement.executeUpdate(sql.toString());
+			}
+			System.out.println("Migrated database to schema version 3");
+		}
+		if (version < 4) {
+			// Compute the running totals of every session, in the order the transactions were added
+			Map<Integer, SessionStats> stats = new LinkedHashMap<>();
+			try (ResultSet rs = statement.executeQuery("SELECT session, date, "
+					+ "CASE WHEN type = 'deposit' THEN amount ELSE -amount END AS signed "
+					+ "FROM transactions WHERE session IS NOT NULL ORDER BY id")) {
+				while (rs.next()) {
+					stats.computeIfAbsent(rs.getInt("session"), s -> new SessionStats())
+							.add(rs.getLong("signed"), rs.getLong("date"));
+				}
+			}
+			try (PreparedStatement insert = connection.prepareStatement("INSERT OR REPLACE INTO sessionStats"
+					+ "(session, balance, high, low, first_date, last_date, count) VALUES(?,?,?,?,?,?,?)")) {
+				for (Map.Entry<Integer, SessionStats> entry : stats.entrySet()) {
+					SessionStats s = entry.getValue();
+					insert.setInt(1, entry.getKey());
+					insert.setLong(2, s.getBalance());
+					insert.setLong(3, s.getHigh());
+					insert.setLong(4, s.getLow());
+					insert.setLong(5, s.getFirstDate());
+					insert.setLong(6, s.getLastDate());
+					insert.setInt(7, s.getCount());
+					insert.addBatch();
+				}
+				insert.executeBatch();
+			}
+			System.out.println("Migrated database to schema version 4");
+		}
+		if (version < 5) {
+			// Build the balance rollups of every session
+			try (ResultSet rs = statement.executeQuery("SELECT session, date, "
+					+ "CASE WHEN type = 'deposit' THEN amount ELSE -amount END AS signed "
+					+ "FROM transactions WHERE session IS NOT NULL ORDER BY session, date, id");
+					PreparedStatement insert = connection.prepareStatement(RollupBuilder.INSERT_SQL)) {
+				RollupBuilder builder = null;
+				int session = 0;
+				while (rs.next()) {
+					if (builder == null || rs.getInt("session") != session) {
+						addRollups(insert, builder);
+						session = rs.getInt("session");
+						builder = new RollupBuilder(session);
+					}
+					builder.add(rs.getLong("signed"), rs.getLong("date"));
+				}
+				addRollups(insert, builder);
+				insert.executeBatch();
+			}
+			System.out.println("Migrated database to schema version 5");
+		}
+		if (version < 6) {
+			// Remember which payment requests have been warned about, so every warning is only added once
+			if (!columnExists(connection, "paymentRequests", "expiry_notified")) {
+				statement.executeUpdate("ALTER TABLE paymentRequests ADD COLUMN expiry_notified integer NOT NULL DEFAULT 0");
+			}
+			statement.executeUpdate("UPDATE paymentRequests SET expiry_notified = 1 WHERE EXISTS "
+					+ "(SELECT 1 FROM messages m WHERE m.session = paymentRequests.session "
+					+ "AND m.message = 'Payment request with id ' || paymentRequests.id || ' has not been filled on time!')");
+			System.out.println("Migrated database to schema version 6");
+		}
+	}
+
+	private static void addRollups(PreparedStatement insert, RollupBuilder builder) throws SQLException {
+		if (builder == null) {
+			return;
+		}
+		for (Object[] row : builder.finish()) {
+			for (int i = 0; i < row.length; i++) {
+				insert.setObject(i + 1, row[i]);
+			}
+			insert.addBatch();
+		}
+	}
+
+	private static int getUserVersion(Statement statement) throws SQLException {
+		try (ResultSet rs = statement.executeQuery("PRAGMA user_version")) {
+			return rs.next() ? rs.getInt(1) : 0;
+		}
+	}
+
+	private static boolean tableExists(Connection connection, String table) throws SQLException {
+		try (ResultSet rs = connection.getMetaData().getTables(null, null, table, null)) {
+			return rs.next();
+		}
+	}
+
+	private static boolean columnExists(Connection connection, String table, String column) throws SQLException {
+		try (Statement stmt = connection.createStatement();
+				ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+			while (rs.next()) {
+				if (rs.getString("name").equalsIgnoreCase(column)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
 }
@@ -0,0 +1,31 @@
+package nl.utwente.ing.database;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory version of the data of every session, increased whenever the data of the session changes.
+ *
+ * Anything computed from the data of a session stays valid as long as the version it was computed at
+ * is still the current version. The version has to be read before the data is, and increased only after
+ * a change has been committed, so a result is never stored under a version that it is older than.
+ */
+public class DataVersions {
+	private final ConcurrentMap<Integer, AtomicLong> versions = new ConcurrentHashMap<>();
+
+	/**
+	 * @return the current version of the data of the session
+	 */
+	public long get(int sessionId) {
+		AtomicLong version = versions.get(sessionId);
+		return version == null ? 0 : version.get();
+	}
+
+	/**
+	 * Increases the version of the data of the session.
+	 */
+	public void increment(int sessionId) {
+		versions.computeIfAbsent(sessionId, s -> new AtomicLong()).incrementAndGet();
+	}
+}
@@ -1,27 +1,38 @@
 package nl.utwente.ing.database;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 
+import nl.utwente.ing.database.OpenPaymentRequests.OpenRequest;
 import nl.utwente.ing.model.CandleStick;
 import nl.utwente.ing.model.Category;
+import nl.utwente.ing.model.HistoryJob;
+import nl.utwente.ing.model.JobStatus;
 import nl.utwente.ing.model.CategoryRule;
 import nl.utwente.ing.model.Message;
 import nl.utwente.ing.model.MessageRule;
 import nl.utwente.ing.model.MessageType;
+import nl.utwente.ing.model.Money;
 import nl.utwente.ing.model.PaymentRequest;
 import nl.utwente.ing.model.SavingGoal;
+import nl.utwente.ing.model.SessionStats;
+import nl.utwente.ing.model.TimeInterval;
 import nl.utwente.ing.model.Transaction;
 import nl.utwente.ing.model.TransactionType;
 import nl.utwente.ing.service.CategoryRuleService;
@@ -30,6 +41,7 @@ import nl.utwente.ing.service.MessageRuleService;
 import nl.utwente.ing.service.MessageService;
 import nl.utwente.ing.service.PaymentRequestService;
 import nl.utwente.ing.service.SavingGoalService;
+import nl.utwente.ing.service.SessionStatsService;
 import nl.utwente.ing.service.TransactionService;
 
 
@@ -38,27 +50,44 @@ public class DatabaseCommunication {
 	public static final String URL = 
 			"jdbc:sqlite:"
 			+ FILENAME;
+	public static final int DEFAULT_POOL_SIZE = 8;
+	/**
+	 * Number of transactions a category rule is applied to in one write, when it is applied on the history.
+	 */
+	public static final int HISTORY_CHUNK_SIZE = 500;
+	/**
+	 * How long the progress of a category rule that has been applied on the history can be requested
+	 * after it has finished.
+	 */
+	public static final long HISTORY_JOB_RETENTION_MILLIS = Duration.ofHours(1).toMillis();
+	/**
+	 * Number of days before the latest transaction over which the spending is compared to message rules.
+	 */
+	public static final int MESSAGE_RULE_DAYS = 30;
+	
+	private static volatile ConnectionPool pool;
+	private static volatile DatabaseWriter writer;
+	private static final IdAllocator ids = new IdAllocator();
+	private static final SessionRegistry sessions = new SessionRegistry();
+	private static final DataVersions versions = new DataVersions();
+	private static final DataVersions ruleVersions = new DataVersions();
+	private static final HistoryJobs historyJobs = new HistoryJobs(HISTORY_JOB_RETENTION_MILLIS);
+	private static final OpenPaymentRequests openPaymentRequests = new OpenPaymentRequests();
+	private static final TransactionDates transactionDates = new TransactionDates();
+	private static final SpendingWindows spendingWindows =
+			new SpendingWindows(Duration.ofDays(MESSAGE_RULE_DAYS).getSeconds());
+	private static final ConcurrentMap<Integer, CategoryRuleMatcher> ruleMatchers = new ConcurrentHashMap<>();
+	// Number of in-memory databases created, used to give each of them its own name
+	private static final AtomicInteger memoryDatabases = new AtomicInteger();
 	
 	/*
 	 * -------------- Code for handling internal transactions --------------
 	 */
 	
-	public static void addInternalTransactionId(int savingGoalId, int transactionId) {
-		String sql = "INSERT INTO internalTransactions (savingGoalId, transactionId) VALUES (?,?)";
-		
-		runPreparedStatementUpdate(sql, savingGoalId, transactionId);
-	}
 	public static void addInternalTransactionIdNoSavingGoal(int transactionId) {
 		String sql = "INSERT INTO internalTransactions (transactionId) VALUES (?)";
 		
-		runPreparedStatementUpdate(sql, transactionId);
-	}
-	
-	public static void deleteInternalTransactionId(int savingGoalId, int transactionId, int sessionId) {
-		String sql = "DELETE FROM internalTransactions WHERE savingGoalId = ? AND transactionId = ?"
-				+ " AND savingGoalId IN (SELECT id FROM savingGoalIds WHERE session = ?)";
-		
-		runPreparedStatementUpdate(sql, savingGoalId, transactionId);
+		QueryTemplate.update(sql, transactionId);
 	}
 	
 	/*
@@ -67,104 +96,271 @@ public class DatabaseCommunication {
 	public static void addPaymentRequestTransaction(int paymentRequestId, int transactionId) {
 		String sql = "INSERT INTO paymentRequestTransactions (paymentRequestId, transactionId) VALUES (?,?)";
 		
-		runPreparedStatementUpdate(sql, paymentRequestId, transactionId);
+		QueryTemplate.update(sql, paymentRequestId, transactionId);
 	}
 	
 	/*
 	 * -------------------- Code for handling sessions --------------------
 	 */
 	
-	public static void addId(int sessionID, int id, String table) {
-		String sql = "INSERT INTO " + table +"(session,id) VALUES (?,?)";
-		
-		runPreparedStatementUpdate( sql, sessionID, id);
+	/**
+	 * Creates a new session with an id taken from the in-memory session sequence, so concurrent
+	 * calls never try to create the same session.
+	 * @return
+	 * 		Id of the new session
+	 * @throws DatabaseException
+	 * 		if the session could not be stored
+	 */
+	public static int createSession() {
+		int sessionId = ids.next("sessions", "session", 1);
+		inTransaction(() -> {
+			String sql = "INSERT INTO sessions(session) VALUES(?)";
+			return QueryTemplate.update(sql, sessionId);
+		});
+		sessions.add(sessionId);
+		return sessionId;
 	}
 	
+	/**
+	 * Checks the session id against the in-memory registry of sessions, without querying the database.
+	 */
+	public static boolean validSessionId(int sessionID) {
+		return sessions.contains(sessionID);
+	}
 	
-	public static void deleteId(int sessionID, int id, String table) {
-		String sql = "DELETE FROM " + table + " WHERE id = ? AND session = ?";
-		
-		runPreparedStatementUpdate( sql, id, sessionID);
+	/**
+	 * Loads the session registry from the database.
+	 */
+	public static void loadSessions() {
+		sessions.reload();
 	}
 	
 	
-	public static void addTransactionId(int sessionID, int id) {
-		addId(sessionID, id, "transactionIds");
-	}
+	/*
+	 * -------------------- Code for handling session statistics --------------------
+	 */
 	
-	public static void addCategoryId(int sessionID, int id) {
-		addId(sessionID, id, "categoryIds");
+	/**
+	 * Gets the running totals over all transactions of the session.
+	 * @return
+	 * 		SessionStats object, with all totals zero if the session has no transactions
+	 */
+	public static SessionStats getSessionStats(int sessionId) {
+		String sql = "SELECT * FROM sessionStats WHERE session = ?";
+		SessionStats stats = QueryTemplate.queryForObject(sql, SessionStatsService.SESSION_STATS_MAPPER, sessionId);
+		return stats == null ? new SessionStats() : stats;
 	}
 	
-	public static void addCategoryRuleId(int sessionID, int id){
-		addId(sessionID, id , "categoryRuleIds");
+	/**
+	 * Adds a newly inserted transaction to the totals of its session.
+	 * Must run in the same unit of work as the insert.
+	 * @param signedAmount
+	 * 		Amount of the transaction in cents, negative for withdrawals
+	 */
+	private static void addToSessionStats(int sessionId, long signedAmount, long unixTimestamp) {
+		addToBalanceRollups(sessionId, signedAmount, unixTimestamp, getSessionStats(sessionId));
+		QueryTemplate.update("INSERT OR IGNORE INTO sessionStats(session) VALUES(?)", sessionId);
+		
+		String sql = "UPDATE sessionStats SET balance = balance + ?, "
+				+ "high = max(high, balance + ?), "
+				+ "low = min(low, balance + ?), "
+				+ "first_date = CASE WHEN count = 0 THEN ? ELSE min(first_date, ?) END, "
+				+ "last_date = CASE WHEN count = 0 THEN ? ELSE max(last_date, ?) END, "
+				+ "count = count + 1 "
+				+ "WHERE session = ?";
+		QueryTemplate.update(sql, signedAmount, signedAmount, signedAmount,
+				unixTimestamp, unixTimestamp, unixTimestamp, unixTimestamp, sessionId);
+		onRollback(() -> transactionDates.forget(sessionId));
+		transactionDates.add(sessionId, unixTimestamp);
 	}
 	
-	public static void addSavingGoalId(int sessionID, int id){
-		addId(sessionID, id , "savingGoalIds");
+	/**
+	 * Recomputes the totals of the session from its transactions, in the order they were added.
+	 * Used after transactions have been changed or removed.
+	 */
+	public static void recomputeSessionStats(int sessionId) {
+		String sql = "SELECT CASE WHEN type = 'deposit' THEN amount ELSE -amount END AS signed, date "
+				+ "FROM transactions WHERE session = ? ORDER BY id";
+		List<long[]> rows = QueryTemplate.query(sql, rs -> new long[] { rs.getLong("signed"), rs.getLong("date") }, sessionId);
+		
+		SessionStats stats = new SessionStats();
+		for (long[] row : rows) {
+			stats.add(row[0], row[1]);
+		}
+		
+		String update = "INSERT OR REPLACE INTO sessionStats(session, balance, high, low, first_date, last_date, count) "
+				+ "VALUES(?,?,?,?,?,?,?)";
+		QueryTemplate.update(update, sessionId, stats.getBalance(), stats.getHigh(), stats.getLow(),
+				stats.getCount() == 0 ? null : stats.getFirstDate(), stats.getCount() == 0 ? null : stats.getLastDate(),
+				stats.getCount());
+		onRollback(() -> transactionDates.forget(sessionId));
+		transactionDates.forget(sessionId);
 	}
 	
-	public static void addPaymentRequestId(int sessionID, int id){
-		addId(sessionID, id , "paymentRequestIds");
+	/**
+	 * Compares the running totals of every session with the totals computed from its transactions
+	 * and recomputes the ones that have drifted.
+	 * @return
+	 * 		Number of sessions whose totals were repaired
+	 */
+	public static int repairSessionStats() {
+		// The totals as recomputeSessionStats computes them, in the order the transactions were added
+		Map<Integer, SessionStats> computed = new HashMap<>();
+		String sql = "SELECT session, date, CASE WHEN type = 'deposit' THEN amount ELSE -amount END AS signed "
+				+ "FROM transactions WHERE session IS NOT NULL ORDER BY session, id";
+		QueryTemplate.forEach(sql, rs -> computed.computeIfAbsent(rs.getInt("session"), s -> new SessionStats())
+				.add(rs.getLong("signed"), rs.getLong("date")));
+		Map<Integer, SessionStats> stored = new HashMap<>();
+		QueryTemplate.forEach("SELECT * FROM sessionStats",
+				rs -> stored.put(rs.getInt("session"), SessionStatsService.SESSION_STATS_MAPPER.mapRow(rs)));
+		
+		List<Integer> drifted = new ArrayList<>();
+		for (int sessionId : QueryTemplate.query("SELECT session FROM sessions", rs -> rs.getInt("session"))) {
+			if (!sameTotals(computed.get(sessionId), stored.get(sessionId))) {
+				drifted.add(sessionId);
+			}
+		}
+		
+		int repaired = 0;
+		for (int sessionId : drifted) {
+			System.out.println("Repairing the statistics of session " + sessionId);
+			try {
+				inTransaction(() -> {
+					recomputeSessionStats(sessionId);
+					rebuildBalanceRollups(sessionId);
+					return null;
+				});
+			} catch (DatabaseException e) {
+				// Try again on the next check, the other sessions can still be repaired
+				System.out.println(e.getMessage());
+				continue;
+			}
+			dataChanged(sessionId);
+			repaired++;
+		}
+		return repaired;
 	}
 	
-	public static void addMessageId(int sessionID, int id){
-		addId(sessionID, id , "messageIds");
+	/**
+	 * @return whether the totals are the same, where a missing total counts as a session without transactions
+	 */
+	private static boolean sameTotals(SessionStats a, SessionStats b) {
+		a = a == null ? new SessionStats() : a;
+		b = b == null ? new SessionStats() : b;
+		return a.getBalance() == b.getBalance() && a.getHigh() == b.getHigh() && a.getLow() == b.getLow()
+				&& a.getCount() == b.getCount()
+				&& (a.getCount() == 0 || a.getFirstDate() == b.getFirstDate() && a.getLastDate() == b.getLastDate());
 	}
 	
-	public static void addMessageRuleId(int sessionID, int id){
-		addId(sessionID, id , "messageRuleIds");
-	}
+	/*
+	 * -------------------- Data versions --------------------
+	 */
 	
-	public static void addSession(int sessionID) {
-		String sql = "INSERT INTO sessions(session) VALUES(?)";
-		runPreparedStatementUpdate( sql, sessionID);
+	/**
+	 * Gets the version of the data of the session, which changes whenever any of its data changes.
+	 * Read it before reading the data that is kept for the version.
+	 */
+	public static long getDataVersion(int sessionId) {
+		return versions.get(sessionId);
 	}
 	
-	public static int getMaxSessionId() {
-		String sql = "SELECT max(session) FROM sessions";
-		 try (Connection conn = connect();
-	             Statement stmt  = conn.createStatement();
-	             ResultSet rs    = stmt.executeQuery(sql)){
-	            
-	            if (rs.next()) {
-	                return rs.getInt("max(session)");
-	            }
-	        } catch (SQLException e) {
-	            System.out.println(e.getMessage());
-	        }
-		 return -1;
+	/**
+	 * Increases the version of the data of the session once the current unit of work has been committed,
+	 * or right away outside a unit of work. Call it after every change to the data of a session.
+	 */
+	private static void dataChanged(int sessionId) {
+		afterCommit(() -> versions.increment(sessionId));
 	}
 	
-	public static boolean validSessionId(int sessionID) {
-		String sql = "SELECT * FROM sessions as s WHERE s.session = ?";
-		try (Connection conn = connect()) {
-	        ResultSet rs  = runPreparedStatementQuery(conn, sql, sessionID);
-	        if (rs.next()) {
-		        return true;
-	        }
-	    } catch (SQLException e) {
-	        System.out.println(e.getMessage());
-	    }
-		
-		return false;
+	/**
+	 * Runs the action when the current unit of work is rolled back, to undo changes made outside the database.
+	 */
+	private static void onRollback(Runnable action) {
+		DatabaseWriter current = writer;
+		if (current != null) {
+			current.onRollback(action);
+		}
 	}
 	
-	
-	public static void deleteTransactionId(int sessionID, int id) {
-		deleteId(sessionID, id, "transactionIds");
+	/**
+	 * Runs the action once the current unit of work has been committed, or right away outside a unit of work.
+	 */
+	private static void afterCommit(Runnable action) {
+		DatabaseWriter current = writer;
+		if (current != null) {
+			current.afterCommit(action);
+		} else {
+			action.run();
+		}
 	}
 	
-	public static void deleteCategoryId(int sessionID, int id) {
-		deleteId(sessionID, id, "categoryIds");
+	/**
+	 * Adds a newly inserted transaction to the balance rollups of its session.
+	 * A transaction after all other transactions only changes the last bucket of every granularity,
+	 * an earlier one changes the balance of all buckets after it, which are then recomputed.
+	 * Must run in the same unit of work as the insert.
+	 * @param signedAmount
+	 * 		Amount of the transaction in cents, negative for withdrawals
+	 * @param before
+	 * 		The totals of the session before the transaction was added
+	 */
+	private static void addToBalanceRollups(int sessionId, long signedAmount, long unixTimestamp, SessionStats before) {
+		if (before.getCount() > 0 && unixTimestamp < before.getLastDate()) {
+			recomputeBalanceRollups(sessionId, unixTimestamp);
+			return;
+		}
+		
+		List<Object[]> inserts = new ArrayList<>();
+		List<Object[]> updates = new ArrayList<>();
+		long balance = before.getBalance();
+		for (TimeInterval granularity : TimeInterval.values()) {
+			long bucketStart = granularity.truncate(unixTimestamp);
+			inserts.add(new Object[] { sessionId, granularity.name(), bucketStart, balance, balance, balance, balance });
+			updates.add(new Object[] { signedAmount, signedAmount, signedAmount, Math.abs(signedAmount),
+					sessionId, granularity.name(), bucketStart });
+		}
+		QueryTemplate.batchUpdate("INSERT OR IGNORE INTO balanceRollups"
+				+ "(session, granularity, bucket_start, open, close, high, low, volume) VALUES(?,?,?,?,?,?,?,0)", inserts);
+		QueryTemplate.batchUpdate("UPDATE balanceRollups SET close = close + ?, "
+				+ "high = max(high, close + ?), "
+				+ "low = min(low, close + ?), "
+				+ "volume = volume + ? "
+				+ "WHERE session = ? AND granularity = ? AND bucket_start = ?", updates);
 	}
 	
-	public static void deleteCategoryRuleId(int sessionID, int id) {
-		deleteId(sessionID, id, "categoryRuleIds");
+	/**
+	 * Recomputes the balance rollups of the session from the bucket containing the given date onwards,
+	 * for every granularity. Used after a transaction at that date has been added, changed or removed.
+	 * @param unixTimestamp
+	 * 		Earliest date of the changed transactions
+	 */
+	public static void recomputeBalanceRollups(int sessionId, long unixTimestamp) {
+		long scanFrom = RollupBuilder.firstBucketStart(unixTimestamp);
+		RollupBuilder builder = new RollupBuilder(sessionId, getBalanceAtIntervalStart(sessionId, scanFrom), unixTimestamp);
+		
+		List<Object[]> deletes = new ArrayList<>();
+		for (TimeInterval granularity : TimeInterval.values()) {
+			deletes.add(new Object[] { sessionId, granularity.name(), builder.getFrom(granularity) });
+		}
+		QueryTemplate.batchUpdate("DELETE FROM balanceRollups WHERE session = ? AND granularity = ? AND bucket_start >= ?", deletes);
+		
+		String sql = "SELECT CASE WHEN type = 'deposit' THEN amount ELSE -amount END AS signed, date "
+				+ "FROM transactions WHERE session = ? AND date >= ? ORDER BY date, id";
+		QueryTemplate.forEach(sql, rs -> builder.add(rs.getLong("signed"), rs.getLong("date")), sessionId, scanFrom);
+		QueryTemplate.batchUpdate(RollupBuilder.INSERT_SQL, builder.finish());
 	}
 	
-	public static void deleteSavingGoalId(int sessionID, int id) {
-		deleteId(sessionID, id, "savingGoalIds");
+	/**
+	 * Recomputes all balance rollups of the session from its transactions.
+	 */
+	public static void rebuildBalanceRollups(int sessionId) {
+		QueryTemplate.update("DELETE FROM balanceRollups WHERE session = ?", sessionId);
+		
+		RollupBuilder builder = new RollupBuilder(sessionId);
+		String sql = "SELECT CASE WHEN type = 'deposit' THEN amount ELSE -amount END AS signed, date "
+				+ "FROM transactions WHERE session = ? ORDER BY date, id";
+		QueryTemplate.forEach(sql, rs -> builder.add(rs.getLong("signed"), rs.getLong("date")), sessionId);
+		QueryTemplate.batchUpdate(RollupBuilder.INSERT_SQL, builder.finish());
 	}
 	
 	/*
@@ -172,154 +368,181 @@ public class DatabaseCommunication {
 	 */
 	
 	/**
-	 * Queries the database for the largest index of the given table.
+	 * Allocates a new id for the given table.
 	 * @return
-	 * 		int representing the largest index or -1 if there are no entries
+	 * 		int that has not been used as an id in the table before
 	 */
-	private static int getMaxIndex(String table) {
-		String sql = "SELECT  id\n" + 
-				"FROM    " + table + " mo\n" + 
-				"WHERE   NOT EXISTS\n" + 
-				"        (\n" + 
-				"        SELECT  NULL\n" + 
-				"        FROM    " + table + " mi \n" + 
-				"        WHERE   mi.id = mo.id + 1\n" + 
-				"        )\n" + 
-				"ORDER BY\n" + 
-				"        id\n" + 
-				"LIMIT 1";
-		try(Connection conn = connect();
-				Statement stmt = conn.createStatement()) {
-	            ResultSet rs = stmt.executeQuery(sql);
-	            if (rs.next()) {
-	            		return rs.getInt("id");
-	            }
-	        } catch (SQLException e) {
-	            System.out.println(e.getMessage());
-	        }
-		return -1;
+	private static int nextId(String table) {
+		return ids.next(table);
 	}
 	
 	
+	/**
+	 * Creates the database writer and the connection pool used by the readers.
+	 * Has no effect if they are already in use.
+	 * @param url
+	 * 		JDBC url of the SQLite database
+	 * @param poolSize
+	 * 		Maximum number of open reader connections
+	 * @param wal
+	 * 		Whether the database should be put in WAL journal mode
+	 */
+	public static synchronized void configure(String url, int poolSize, boolean wal) {
+		configure(url, poolSize, wal, null);
+	}
 	
+	/**
+	 * Creates the database writer and the connection pool on a new database that is kept in memory,
+	 * and is lost when they are shut down. Has no effect if they are already in use.
+	 * 
+	 * The connections share the database through a shared cache. Connections to a shared cache lock
+	 * tables instead of the file and do not wait for each other's locks, so the readers wait for the
+	 * writer to commit its group of writes before they read, and the writer waits for the readers.
+	 * @param poolSize
+	 * 		Maximum number of open reader connections
+	 */
+	public static synchronized void configureInMemory(int poolSize) {
+		String url = "jdbc:sqlite:file:memory" + memoryDatabases.incrementAndGet() + "?mode=memory&cache=shared";
+		// WAL needs a database file
+		configure(url, poolSize, false, new ReentrantReadWriteLock(true));
+	}
 	
 	/**
-	 * Connects to the database.
-	 * @return
-	 * 		Connection object
+	 * @param lock
+	 * 		Lock whose write lock is held while the writer writes and whose read lock is held by the
+	 * 		readers, or null if readers can read while the writer writes
 	 */
-	public static Connection connect() {
-        Connection conn = null;
-        try {
-            conn = DriverManager.getConnection(URL);
-            conn.createStatement().executeUpdate("PRAGMA foreign_keys = ON;");
-        } catch (SQLException e) {
-            System.out.println(e.getMessage());
-        }
-        return conn;
-    }
-
+	private static void configure(String url, int poolSize, boolean wal, ReadWriteLock lock) {
+		if (writer == null) {
+			try {
+				writer = new DatabaseWriter(url, wal, lock == null ? null : lock.writeLock());
+			} catch (SQLException e) {
+				System.out.println(e.getMessage());
+			}
+		}
+		if (pool == null) {
+			pool = new ConnectionPool(url, poolSize, lock == null ? null : lock.readLock());
+		}
+	}
+	
 	/**
-	 * Takes the given sql query and executes it.
-	 * @param sql
-	 * 			The sql message as a string
-	 * @return resultset containing the result of the query
+	 * Finishes the queued writes and closes all connections.
 	 */
-	public static ResultSet executeSQLQuery(String sql) {
-		try (Connection conn = connect(); 
-				Statement stmt = conn.createStatement()) {
-			return stmt.executeQuery(sql);
-		} catch (SQLException e) {
-			System.out.println(e.getMessage());
+	public static synchronized void shutdown() {
+		historyJobs.shutdown();
+		if (writer != null) {
+			writer.close();
+			writer = null;
+		}
+		if (pool != null) {
+			pool.close();
+			pool = null;
 		}
-		return null;
 	}
 	
 	/**
-	 * Takes the given sql update and executes it.
-	 * @param sql
-	 * 			The sql message as a string
+	 * @return the connection pool, creating it with the default size if it was not configured
 	 */
-	public static void runSQLUpdate(String sql) {
-		try (Connection conn = connect(); 
-				Statement stmt = conn.createStatement()) {
-			stmt.executeUpdate(sql);
-		} catch (SQLException e) {
-			System.out.println(e.getMessage());
+	public static ConnectionPool getPool() {
+		ConnectionPool current = pool;
+		if (current == null) {
+			synchronized (DatabaseCommunication.class) {
+				if (pool == null) {
+					configure(URL, DEFAULT_POOL_SIZE, true);
+				}
+				current = pool;
+			}
 		}
+		return current;
 	}
 	
+	/**
+	 * @return the single database writer, creating it if it was not configured
+	 * @throws SQLException
+	 * 		if the writer connection could not be opened
+	 */
+	public static DatabaseWriter getWriter() throws SQLException {
+		DatabaseWriter current = writer;
+		if (current == null) {
+			synchronized (DatabaseCommunication.class) {
+				if (writer == null) {
+					configure(URL, DEFAULT_POOL_SIZE, true);
+				}
+				current = writer;
+			}
+		}
+		if (current == null) {
+			throw new SQLException("Database writer is not available");
+		}
+		return current;
+	}
 	
 	/**
-	 * Gets the transaction from the database with a specific id.
-	 * @param id
-	 * 			Id of the transaction
+	 * Runs the given work as one unit of work. All reads and writes done by the work use the
+	 * writer connection inside one database transaction, which is committed once at the end
+	 * or rolled back completely when the work fails. Units of work started from within another
+	 * unit of work become part of it.
+	 * @param work
+	 * 		The work to run
 	 * @return
-	 * 			Transaction object from the database
+	 * 		The value returned by the work
 	 */
-	public static Transaction getTransaction(int id, int sessionId) {
-		String sql = "SELECT * FROM transactions WHERE id = ? AND id IN (SELECT id FROM transactionIds WHERE session = ?)" + 
-					 " AND id NOT IN (SELECT transactionId FROM internalTransactions)";
-
-		try (Connection conn = connect();
-	             PreparedStatement pstmt  = conn.prepareStatement(sql)) {
-	        List<Transaction> transactions = TransactionService.getTransactions(runPreparedStatementQuery(conn, sql, id, sessionId));
-	        
-	        if (transactions.size() == 1) {
-	            return transactions.get(0);
-	        }
-	    } catch (SQLException e) {
-	        System.out.println(e.getMessage());
-	    }
-		return null;
+	public static <T> T inTransaction(Supplier<T> work) {
+		try {
+			return getWriter().submit(conn -> work.get());
+		} catch (SQLException e) {
+			throw new DatabaseException(e);
+		}
 	}
 	
 	/**
-	 * Gets the last transaction from the database
-	 * @param id
-	 * 			Id of the transaction
+	 * @return whether the calling thread is running a unit of work
+	 */
+	static boolean inUnitOfWork() {
+		DatabaseWriter current = writer;
+		return current != null && current.isWriterThread();
+	}
+	
+	/**
+	 * Connects to the database by taking a connection from the pool.
+	 * Closing the connection returns it to the pool.
+	 * Inside a unit of work the connection of the running transaction is returned instead.
 	 * @return
-	 * 			Transaction object from the database
+	 * 		Connection object
+	 */
+	public static Connection connect() {
+        Connection conn = null;
+        try {
+            conn = getConnection();
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+        return conn;
+    }
+	
+	/**
+	 * Same as connect(), but reports a failure to obtain a connection instead of returning null.
 	 */
-	public static Transaction getLastTransaction(int sessionId) {
-		String sql = "SELECT * FROM transactions WHERE id IN (SELECT id FROM transactionIds WHERE session = ?)  ORDER BY date DESC LIMIT 1";
+	static Connection getConnection() throws SQLException {
+		if (inUnitOfWork()) {
+			// Read through the connection of the running transaction
+			return writer.borrowConnection();
+		}
+		return getPool().getConnection();
+	}
 
-		try (Connection conn = connect()) {
-	        ResultSet rs  = runPreparedStatementQuery(conn, sql, sessionId);
-	        
-	        List<Transaction> transactions = TransactionService.getTransactions(rs);
-	        
-	        if (transactions.size() == 1) {
-	            return transactions.get(0);
-	        }
-	    } catch (SQLException e) {
-	        System.out.println(e.getMessage());
-	    }
-		return null;
-	}
-	
-	/**
-	 * Gets the first transaction from the database
+	
+	/**
+	 * Gets the transaction from the database with a specific id.
 	 * @param id
 	 * 			Id of the transaction
 	 * @return
 	 * 			Transaction object from the database
 	 */
-	public static Transaction getFirstTransaction(int sessionId) {
-		String sql = "SELECT * FROM transactions WHERE id IN (SELECT id FROM transactionIds WHERE session = ?)  ORDER BY date ASC LIMIT 1";
+	public static Transaction getTransaction(int id, int sessionId) {
+		String sql = TransactionService.TRANSACTION_SELECT + " WHERE t.id = ? AND t.session = ? AND t.is_internal = 0";
 
-		try (Connection conn = connect()) {
-	        ResultSet rs  = runPreparedStatementQuery(conn, sql, sessionId);
-	        
-	        List<Transaction> transactions = TransactionService.getTransactions(rs);
-	        
-	        if (transactions.size() == 1) {
-	            return transactions.get(0);
-	        }
-	    } catch (SQLException e) {
-	        System.out.println(e.getMessage());
-	    }
-		return null;
+		return QueryTemplate.queryForObject(sql, TransactionService.TRANSACTION_MAPPER, id, sessionId);
 	}
 	
 	/**
@@ -330,18 +553,8 @@ public class DatabaseCommunication {
 	 * 			Boolean indicating whether the transaction is present or not in the database
 	 */
 	public static boolean transactionExists(int id) {
-		String sql = "SELECT * FROM transactions WHERE id = ? AND id NOT IN (SELECT id FROM internalTransactions)";
-		try (Connection conn = connect()) {
-	            
-	        ResultSet rs  = runPreparedStatementQuery(conn, sql, id);
-	            
-	        if (rs.next()) {
-	            return true;
-	        }
-	    } catch (SQLException e) {
-	        System.out.println(e.getMessage());
-	    }
-		return false;
+		String sql = "SELECT * FROM transactions WHERE id = ? AND is_internal = 0";
+		return QueryTemplate.exists(sql, id);
 	}
 	
 	/**
@@ -353,16 +566,7 @@ public class DatabaseCommunication {
 	 */
 	public static boolean categoryExists(int id) {
 		String sql = "SELECT * FROM categories WHERE id = ?";
-		try (Connection conn = connect()) {            
-	        ResultSet rs  = runPreparedStatementQuery(conn, sql, id);
-	            
-	        if (rs.next()) {
-	            return true;
-	        }
-	    } catch (SQLException e) {
-	        System.out.println(e.getMessage());
-	    }
-		return false;
+		return QueryTemplate.exists(sql, id);
 	}
 	
 	/**
@@ -372,45 +576,17 @@ public class DatabaseCommunication {
 	 */
 	public static List<Transaction> getAllExternalTransactions(int offset, int limit,
 			int categoryID, int sessionId) {
-		List<Transaction> transactions = new ArrayList<>();
-		
-		
-		String sql = "SELECT * FROM transactions WHERE id IN (SELECT id FROM transactionIds WHERE session = ?)" + 
-				 " AND id NOT IN (SELECT transactionId FROM internalTransactions)";
+		String sql = TransactionService.TRANSACTION_SELECT + " WHERE t.session = ? AND t.is_internal = 0";
 		
 		if (categoryID != -1) {
-			sql += " AND categoryID = ?";
+			sql += " AND t.categoryID = ?";
 		}
 		
-		sql += " LIMIT ?,?";
-		try (Connection conn = connect()) {
-			ResultSet rs;
-			
-			if (categoryID != -1) {
-				rs = runPreparedStatementQuery(conn, sql, sessionId, categoryID, offset, limit);
-			} else {
-				rs = runPreparedStatementQuery(conn, sql, sessionId, offset, limit);
-			}
-				
-	        	transactions = TransactionService.getTransactions(rs);
-	        return transactions;
-	    } catch (SQLException e) {
-	        System.out.println(e.getMessage());
-	    }
-		return null;
-		
-	}
-	
-	public static List<Transaction> getAllTransactions(int sessionId){
-		String sql = "SELECT * FROM transactions WHERE id IN (SELECT id FROM transactionIds WHERE session = ?)";
-		
-		try (Connection conn = connect()){
-			return TransactionService.getTransactions(runPreparedStatementQuery(conn, sql, sessionId));
-		} catch (SQLException e) {
-			e.printStackTrace();
+		sql += " ORDER BY t.id LIMIT ?,?";
+		if (categoryID != -1) {
+			return QueryTemplate.query(sql, TransactionService.TRANSACTION_MAPPER, sessionId, categoryID, offset, limit);
 		}
-		
-		return null;
+		return QueryTemplate.query(sql, TransactionService.TRANSACTION_MAPPER, sessionId, offset, limit);
 	}
 	
 
@@ -422,86 +598,73 @@ public class DatabaseCommunication {
 	 * 			Transaction object
 	 */
 	public static Transaction addTransaction(Transaction t, int sessionId) {
+		Transaction added = inTransaction(() -> ingestTransaction(t, sessionId));
+		dataChanged(sessionId);
+		return added;
+	}
+	
+	/**
+	 * Adds a transaction and applies all its side effects. Must run inside a unit of work.
+	 */
+	private static Transaction ingestTransaction(Transaction t, int sessionId) {
 
 		boolean isInTheFuture = isTransactionInTheFuture(sessionId, t);
 		
-		// Get all transactions that were added before this one
-		List<Transaction> previousTransactions = getAllTransactions(sessionId);
-		
-		// Generate new id
-		int newId = DatabaseCommunication.getLastTransactionID() + 1;
-		t.setId(newId);
+		// The highest balance reached by the transactions that were added before this one
+		long maxBefore = getSessionStats(sessionId).getHigh();
 		
 		// Apply category rule
 		DatabaseCommunication.applyCategoryRule(t, sessionId);
 		
+		// Apply saving goals for the months between the previous last transaction and this one
+		DatabaseCommunication.applySavingGoals(t, sessionId);
 		
+		// Generate new id, after the ids of the saving goal transactions, whose amounts are added to the
+		// totals first. The totals are recomputed in the order of the ids.
+		int newId = nextId("transactions");
+		t.setId(newId);
 		
-		String sql = "INSERT INTO transactions(id, date, amount, description, externalIBAN, type, categoryID) VALUES(?,?,?,?,?,?,?)";
+		String sql = "INSERT INTO transactions(id, date, amount, description, externalIBAN, type, categoryID, session) VALUES(?,?,?,?,?,?,?,?)";
 		
 		
-        runPreparedStatementUpdate(sql, t.getId(), t.returnUnixTimestamp(), t.getAmount(), t.getDescription(),
-            	t.getExternalIBAN(), t.getType().toString(), t.CategoryID() == -1 ? null : t.CategoryID());
-        
-        // Apply saving goals
-     	DatabaseCommunication.applySavingGoals(t, sessionId);
+        QueryTemplate.update(sql, t.getId(), t.returnUnixTimestamp(), t.returnAmountCents(), t.getDescription(),
+            	t.getExternalIBAN(), t.getType().toString(), t.CategoryID() == -1 ? null : t.CategoryID(), sessionId);
+        addToSessionStats(sessionId, t.getType().equals(TransactionType.deposit) ? t.returnAmountCents() : -t.returnAmountCents(),
+        		t.returnUnixTimestamp());
+        if (t.getType().equals(TransactionType.withdrawal) && t.CategoryID() != -1) {
+        	onRollback(() -> spendingWindows.forget(sessionId));
+        	spendingWindows.add(sessionId, t.CategoryID(), t.returnUnixTimestamp(), t.returnAmountCents());
+        }
         
         // Apply payment requests
      	applyPaymentRequests(t, sessionId);
         
-        DatabaseCommunication.addTransactionId(sessionId, t.getId());
-        
         if (isInTheFuture) {
 	        // Apply messages
-	        applyMessages(sessionId, t, previousTransactions);
+	        applyMessages(sessionId, t, maxBefore);
 	        applyMessageRules(sessionId, t);
         }
         
         return t;
 	}
 	
-	/**
-	 * Adds an internal transaction object to the database.
-	 * @param t
-	 * 			Transaction object
-	 */
-	public static Transaction addInternalTransaction(double amount, long unixTimestamp, int sessionId, int savingGoalId) {
-		
-		Transaction t = new Transaction(unixTimestamp, amount);
-		
-		// Generate new id
-		int newId = DatabaseCommunication.getLastTransactionID() + 1;
-		t.setId(newId);
-		
-		
-		String sql = "INSERT INTO transactions(id, date, amount, description, externalIBAN, type) VALUES(?,?,?,?,?,?)";
-	
-        runPreparedStatementUpdate(sql, t.getId(), t.returnUnixTimestamp(), t.getAmount(), t.getDescription(),
-            	t.getExternalIBAN(), t.getType().toString());
-        
-        DatabaseCommunication.addTransactionId(sessionId, t.getId());
-        DatabaseCommunication.addInternalTransactionId(savingGoalId, t.getId());
-  
-        
-        return t;
-	}
-	
-	public static Transaction addInternalTransactionReturnMoney(double amount, long unixTimestamp, int sessionId) {
+	public static Transaction addInternalTransactionReturnMoney(long amountCents, long unixTimestamp, int sessionId) {
 		
-		Transaction t = new Transaction(unixTimestamp, amount);
+		Transaction t = new Transaction(unixTimestamp, amountCents);
 		
 		// Generate new id
-		int newId = DatabaseCommunication.getLastTransactionID() + 1;
+		int newId = nextId("transactions");
 		t.setId(newId);
 		
 		
-		String sql = "INSERT INTO transactions(id, date, amount, description, externalIBAN, type) VALUES(?,?,?,?,?,'deposit')";
+		String sql = "INSERT INTO transactions(id, date, amount, description, externalIBAN, type, session, is_internal) VALUES(?,?,?,?,?,'deposit',?,1)";
 	
-        runPreparedStatementUpdate(sql, t.getId(), t.returnUnixTimestamp(), t.getAmount(), t.getDescription(),
-            	t.getExternalIBAN());
+        QueryTemplate.update(sql, t.getId(), t.returnUnixTimestamp(), t.returnAmountCents(), t.getDescription(),
+            	t.getExternalIBAN(), sessionId);
+        addToSessionStats(sessionId, t.returnAmountCents(), t.returnUnixTimestamp());
         
-        DatabaseCommunication.addTransactionId(sessionId, t.getId());
         DatabaseCommunication.addInternalTransactionIdNoSavingGoal(t.getId());
+        dataChanged(sessionId);
   
         
         return t;
@@ -521,9 +684,22 @@ public class DatabaseCommunication {
                 + "externalIBAN = ? , "
                 + "type = ? , "
                 + "description = ? "
-                + "WHERE id = ? AND id IN (SELECT id FROM transactionIds WHERE session = ?)";
-        	runPreparedStatementUpdate( sql, t.returnUnixTimestamp(), t.getAmount(), t.getExternalIBAN(), t.getType().toString(),
-        		t.getDescription(), id, sessionId);  
+                + "WHERE id = ? AND session = ?";
+		inTransaction(() -> {
+			Long oldDate = getTransactionDate(id, sessionId);
+			QueryTemplate.update(sql, t.returnUnixTimestamp(), t.returnAmountCents(), t.getExternalIBAN(), t.getType().toString(),
+					t.getDescription(), id, sessionId);
+			recomputeSessionStats(sessionId);
+			spendingWindows.forget(sessionId);
+			// The payment request the transaction paid may have lost the payment
+			onRollback(() -> openPaymentRequests.forget(sessionId));
+			openPaymentRequests.forget(sessionId);
+			if (oldDate != null) {
+				recomputeBalanceRollups(sessionId, Math.min(oldDate, t.returnUnixTimestamp()));
+			}
+			return null;
+		});
+		dataChanged(sessionId);
 	}
 	
 	/**
@@ -532,16 +708,45 @@ public class DatabaseCommunication {
 	 * 			The id of the transaction to delete
 	 */
 	public static void deleteTransaction(int id, int sessionId) {
-        String sql = "DELETE FROM transactions WHERE id = ? and id IN (SELECT id FROM transactionIds WHERE session = ?) "
-        		+ "AND id NOT IN (SELECT transactionId FROM internalTransactions)";
-	    runPreparedStatementUpdate(sql, id, sessionId); 
-
+        String sql = "DELETE FROM transactions WHERE id = ? AND session = ? AND is_internal = 0";
+		inTransaction(() -> {
+			Long oldDate = getTransactionDate(id, sessionId);
+			if (QueryTemplate.update(sql, id, sessionId) > 0) {
+				recomputeSessionStats(sessionId);
+				spendingWindows.forget(sessionId);
+				// The payment of the transaction is removed from the payment request it paid
+				onRollback(() -> openPaymentRequests.forget(sessionId));
+				openPaymentRequests.forget(sessionId);
+				recomputeBalanceRollups(sessionId, oldDate);
+			}
+			return null;
+		});
+		dataChanged(sessionId);
+	}
+	
+	/**
+	 * @return the date of the transaction in seconds since the epoch, or null if it does not exist
+	 */
+	private static Long getTransactionDate(int id, int sessionId) {
+		String sql = "SELECT date FROM transactions WHERE id = ? AND session = ?";
+		return QueryTemplate.queryForObject(sql, rs -> rs.getLong("date"), id, sessionId);
 	}
 	
 	public static void assignCategory(int categoryID, int transactionID) {
 		String sql = "UPDATE transactions SET categoryID = ?"
                 + "WHERE id = ?";
-        runPreparedStatementUpdate(sql, categoryID, transactionID);  
+        Integer sessionId = inTransaction(() -> {
+        	QueryTemplate.update(sql, categoryID, transactionID);
+        	Integer session = QueryTemplate.queryForObject("SELECT session FROM transactions WHERE id = ?",
+        			rs -> rs.getInt("session"), transactionID);
+        	if (session != null) {
+        		spendingWindows.forget(session);
+        	}
+        	return session;
+        });
+        if (sessionId != null) {
+        	dataChanged(sessionId);
+        }
 	}
 	
 	/**
@@ -550,20 +755,8 @@ public class DatabaseCommunication {
 	 * 			List of categories
 	 */
 	public static List<Category> getAllCategories(int sessionId) {
-		List<Category> categories = new ArrayList<>();
-		
-		String sql = "SELECT * FROM categories WHERE id IN (SELECT id FROM categoryIds WHERE session = ?)";
-		try (Connection conn = connect()) {
-			ResultSet rs  = runPreparedStatementQuery(conn, sql, sessionId);  
-			
-	        while (rs.next()) {
-	            categories.add(new Category(rs.getInt("id"), rs.getString("name")));
-	        }
-	        return categories;
-	    } catch (SQLException e) {
-	        System.out.println(e.getMessage());
-	    }
-		return null;
+		String sql = "SELECT * FROM categories WHERE session = ?";
+		return QueryTemplate.query(sql, CategoryService.CATEGORY_MAPPER, sessionId);
 	}
 	/**
 	 * Adds the given category object to the database.
@@ -573,13 +766,12 @@ public class DatabaseCommunication {
 	public static Category addCategory(Category c, int sessionId) {
 		
 		// Generate new id
-		int newId = DatabaseCommunication.getLastCategoryID() + 1;
+		int newId = nextId("categories");
 		c.setId(newId);
 		
-		String sql = "INSERT INTO categories VALUES(?,?)";
-        runPreparedStatementUpdate(sql, c.getId(), c.getName());
-        
-        addCategoryId(sessionId, c.getId());
+		String sql = "INSERT INTO categories(id, name, session) VALUES(?,?,?)";
+        QueryTemplate.update(sql, c.getId(), c.getName(), sessionId);
+        dataChanged(sessionId);
         
         return c;
 	}
@@ -592,15 +784,8 @@ public class DatabaseCommunication {
 	 * 			Category object from the database
 	 */
 	public static Category getCategory(int id, int sessionId) {
-		String sql = "SELECT * FROM categories WHERE id = ? AND id IN (SELECT id FROM categoryIds WHERE session = ?)";
-		try (Connection conn = connect()) {
-	        ResultSet rs  = runPreparedStatementQuery(conn, sql, id, sessionId);
-	            
-	        return CategoryService.getCategory(rs);
-	    } catch (SQLException e) {
-	        System.out.println(e.getMessage());
-	    }
-		return null;
+		String sql = "SELECT * FROM categories WHERE id = ? AND session = ?";
+		return QueryTemplate.queryForObject(sql, CategoryService.CATEGORY_MAPPER, id, sessionId);
 	}
 	
 	/**
@@ -612,15 +797,7 @@ public class DatabaseCommunication {
 	 */
 	public static Category getCategory(int id) {
 		String sql = "SELECT * FROM categories WHERE id = ?";
-		try (Connection conn = connect()) {
-	            
-	        ResultSet rs  = runPreparedStatementQuery(conn, sql, id);
-	            
-	        return CategoryService.getCategory(rs);
-	    } catch (SQLException e) {
-	        System.out.println(e.getMessage());
-	    }
-		return null;
+		return QueryTemplate.queryForObject(sql, CategoryService.CATEGORY_MAPPER, id);
 	}
 	
 	/**
@@ -629,8 +806,14 @@ public class DatabaseCommunication {
 	 * 			The id of the category to delete
 	 */
 	public static void deleteCategory(int id, int sessionId) {
-		String sql = "DELETE FROM categories WHERE id = ? AND id IN (SELECT id FROM categoryIds WHERE session = ?)";
-        runPreparedStatementUpdate( sql, id, sessionId);
+		String sql = "DELETE FROM categories WHERE id = ? AND session = ?";
+		inTransaction(() -> {
+	        QueryTemplate.update(sql, id, sessionId);
+	        // The transactions of the category no longer have a category
+	        spendingWindows.forget(sessionId);
+	        return null;
+		});
+        dataChanged(sessionId);
         
         
 	}
@@ -644,8 +827,9 @@ public class DatabaseCommunication {
 	 */
 	public static void updateCategory(Category c, int id, int sessionId) {
 		String sql = "UPDATE categories SET name = ? "
-                + "WHERE id = ? AND id IN (SELECT id FROM categoryIds WHERE session = ?)";
-        runPreparedStatementUpdate( sql, c.getName(), id, sessionId);
+                + "WHERE id = ? AND session = ?";
+        QueryTemplate.update(sql, c.getName(), id, sessionId);
+        dataChanged(sessionId);
 	}
 	
 	
@@ -655,23 +839,82 @@ public class DatabaseCommunication {
 	 * 			List of category rules
 	 */
 	public static List<CategoryRule> getAllCategoryRules(int sessionId) {
-		List<CategoryRule> categoryRules = new ArrayList<>();
-		String sql = "SELECT * FROM categoryRules WHERE id IN (SELECT id FROM categoryRuleIds WHERE session = ?)";
-		try (Connection conn = connect()) {
-			
-			ResultSet rs  = runPreparedStatementQuery(conn, sql, sessionId);
-			
-	        categoryRules =  CategoryRuleService.getCategoryRules(rs);
-	    } catch (SQLException e) {
-	        System.out.println(e.getMessage());
-	    }
-		return categoryRules;
+		String sql = "SELECT * FROM categoryRules WHERE session = ?";
+		return QueryTemplate.query(sql, CategoryRuleService.CATEGORY_RULE_MAPPER, sessionId);
 	}
 	
-	public static void applyCategoryRuleOnHistory(CategoryRule cr, int sessionId) {
-		String sql = "UPDATE transactions SET categoryID = ? WHERE description LIKE ? AND externalIBAN LIKE ? AND type = ? AND id IN (SELECT id FROM transactionIds WHERE session = ?)";
-        runPreparedStatementUpdate( sql, cr.getCategory_id(), "%" + cr.getDescription() + "%",
-            	"%" + cr.getiBAN() + "%", cr.getType().toString(), sessionId);
+	/**
+	 * Starts a background job that applies the category rule to the transactions of the session.
+	 * @return
+	 * 		The job, which reports the progress
+	 */
+	public static HistoryJob applyCategoryRuleOnHistory(CategoryRule cr, int sessionId) {
+		HistoryJob job = new HistoryJob(cr.getId(), sessionId);
+		historyJobs.submit(job, j -> runCategoryRuleOnHistory(cr, j));
+		return job;
+	}
+	
+	/**
+	 * Gets the job that applies the category rule to the earlier transactions of the session.
+	 * @return
+	 * 		The job, or null if none has been started for the category rule since startup or it
+	 * 		finished longer than HISTORY_JOB_RETENTION_MILLIS ago
+	 */
+	public static HistoryJob getHistoryJob(int categoryRuleId, int sessionId) {
+		HistoryJob job = historyJobs.get(categoryRuleId);
+		return job != null && job.returnSessionId() == sessionId ? job : null;
+	}
+	
+	/**
+	 * Applies the category rule to the external transactions of the session in chunks of consecutive ids.
+	 * Every chunk is a separate write, so other writes are done in between the chunks. The internal
+	 * transactions of the saving goals are skipped, as category rules do not apply to them.
+	 */
+	private static void runCategoryRuleOnHistory(CategoryRule cr, HistoryJob job) {
+		int sessionId = job.returnSessionId();
+		Integer total = QueryTemplate.queryForObject("SELECT count(*) AS total FROM transactions "
+				+ "WHERE session = ? AND is_internal = 0", rs -> rs.getInt("total"), sessionId);
+		job.setTotal(total == null ? 0 : total);
+		
+		String chunkSql = "SELECT count(*) AS size, max(id) AS last FROM "
+				+ "(SELECT id FROM transactions WHERE session = ? AND is_internal = 0 AND id > ? ORDER BY id LIMIT ?)";
+		String sql = "UPDATE transactions SET categoryID = ? WHERE session = ? AND is_internal = 0 AND id > ? AND id <= ? "
+				+ "AND description LIKE ? AND externalIBAN LIKE ? AND type = ?";
+		int last = -1;
+		while (!Thread.currentThread().isInterrupted()) {
+			long[] chunk = QueryTemplate.queryForObject(chunkSql,
+					rs -> new long[] { rs.getInt("size"), rs.getInt("last") }, sessionId, last, HISTORY_CHUNK_SIZE);
+			if (chunk[0] == 0) {
+				job.setStatus(JobStatus.done);
+				return;
+			}
+			
+			long chunkStart = last;
+			long chunkEnd = chunk[1];
+			int updated;
+			try {
+				updated = inTransaction(() -> {
+					int changed = QueryTemplate.update(sql, cr.getCategory_id(), sessionId, chunkStart, chunkEnd,
+							"%" + cr.getDescription() + "%", "%" + cr.getiBAN() + "%", cr.getType().toString());
+					if (changed > 0) {
+						spendingWindows.forget(sessionId);
+					}
+					return changed;
+				});
+			} catch (DatabaseException e) {
+				// The chunk has been rolled back, the chunks before it stay applied
+				System.out.println(e.getMessage());
+				job.setStatus(JobStatus.failed);
+				return;
+			}
+			if (updated > 0) {
+				dataChanged(sessionId);
+			}
+			job.addProcessed((int) chunk[0]);
+			job.addUpdated(updated);
+			last = (int) chunk[1];
+		}
+		job.setStatus(JobStatus.failed);
 	}
 	
 	/**
@@ -682,14 +925,13 @@ public class DatabaseCommunication {
 	public static CategoryRule addCategoryRule(CategoryRule c, int sessionId) {
 		
 		// Generate new id
-		int newId = DatabaseCommunication.getLastCategoryRuleID() + 1;
+		int newId = nextId("categoryRules");
 		c.setId(newId);
 		
-		String sql = "INSERT INTO categoryRules VALUES(?,?,?,?,?,?)";
-        runPreparedStatementUpdate(sql, c.getId(), c.getDescription(),
-            	c.getiBAN(), c.getType().toString(), c.getCategory_id(), c.isApplyOnHistory() ? 1 : 0);
-        
-        DatabaseCommunication.addCategoryRuleId(sessionId, c.getId());
+		String sql = "INSERT INTO categoryRules(id, description, iBAN, type, category_id, applyOnHistory, session) VALUES(?,?,?,?,?,?,?)";
+        QueryTemplate.update(sql, c.getId(), c.getDescription(),
+            	c.getiBAN(), c.getType().toString(), c.getCategory_id(), c.isApplyOnHistory() ? 1 : 0, sessionId);
+        categoryRulesChanged(sessionId);
         
         return c;
 	}
@@ -702,15 +944,8 @@ public class DatabaseCommunication {
 	 * 			CategoryRule object from the database
 	 */
 	public static CategoryRule getCategoryRule(int id, int sessionId) {
-		String sql = "SELECT * FROM categoryRules WHERE id = ? AND id IN (SELECT id FROM categoryRuleIds WHERE session = ?)";
-		try (Connection conn = connect()) {
-	        ResultSet rs  = runPreparedStatementQuery(conn, sql, id, sessionId);
-	            
-	        return CategoryRuleService.getCategoryRule(rs);
-	    } catch (SQLException e) {
-	        System.out.println(e.getMessage());
-	    }
-		return null;
+		String sql = "SELECT * FROM categoryRules WHERE id = ? AND session = ?";
+		return QueryTemplate.queryForObject(sql, CategoryRuleService.CATEGORY_RULE_MAPPER, id, sessionId);
 	}
 
 	
@@ -723,10 +958,11 @@ public class DatabaseCommunication {
 	 */
 	public static void updateCategoryRule(CategoryRule c, int id, int sessionId) {
 		String sql = "UPDATE categoryRules SET description = ?, iBAN = ?, type = ?, category_id = ? "
-                + "WHERE id = ? AND id IN (SELECT id FROM categoryRuleIds WHERE session = ?)";
+                + "WHERE id = ? AND session = ?";
 
-        runPreparedStatementUpdate(sql, c.getDescription(), c.getiBAN(),
+        QueryTemplate.update(sql, c.getDescription(), c.getiBAN(),
             c.getType().toString(), c.getCategory_id(), id, sessionId);
+        categoryRulesChanged(sessionId);
 	}
 	
 	/**
@@ -735,48 +971,48 @@ public class DatabaseCommunication {
 	 * 			The id of the category rule to delete
 	 */
 	public static void deleteCategoryRule(int id, int sessionId) {
-		String sql = "DELETE FROM categoryRules WHERE id = ? AND id IN (SELECT id FROM categoryRuleIds WHERE session = ?)";
-        runPreparedStatementUpdate(sql, id, sessionId);
+		String sql = "DELETE FROM categoryRules WHERE id = ? AND session = ?";
+        QueryTemplate.update(sql, id, sessionId);
+        categoryRulesChanged(sessionId);
         
 	}
 	
+	/**
+	 * Assigns the category of the first category rule of the session that matches the transaction.
+	 * Rules whose category does not exist are skipped.
+	 */
 	public static void applyCategoryRule(Transaction t, int sessionId) {
-		List<CategoryRule> categoryRules = getAllCategoryRules(sessionId);
-		ListIterator<CategoryRule> li = categoryRules.listIterator();
-
-		while (li.hasNext()) {
-			CategoryRule cr = li.next();
-			if (t.getDescription().contains(cr.getDescription()) &&
-				t.getExternalIBAN().contains(cr.getiBAN())   	&&
-				t.getType().equals(cr.getType())					&&
-				getCategory(cr.getCategory_id())!= null) {
-				
-				t.setCategory(getCategory(cr.getCategory_id()));
+		CategoryRuleMatcher matcher = getCategoryRuleMatcher(sessionId);
+		for (CategoryRule cr : matcher.match(t.getDescription(), t.getExternalIBAN(), t.getType())) {
+			Category category = getCategory(cr.getCategory_id());
+			if (category != null) {
+				t.setCategory(category);
 				return;
 			}
 		}
 	}
+	
 	/**
-	 * Gets all transactions from the database that happened in the given interval
-	 * @param transactionIds
-	 * @param intervalStart
-	 * @param interval
-	 * @return
+	 * @return the compiled category rules of the session, compiling them again if they have changed
 	 */
-	public static List<Transaction> getAllTransactionsAtInterval(int sessionId, ZonedDateTime intervalStart, ChronoUnit interval) {
-		ZonedDateTime intervalEnd = intervalStart.plus(1, interval);
-		String sql =  "SELECT * FROM transactions WHERE date >= ? AND date < ? AND id IN (SELECT id FROM transactionIds WHERE session = ?)";
-		sql += " ORDER BY date ASC;";
-
-		
-		try (Connection conn = connect()){
-			ResultSet rs = runPreparedStatementQuery(conn, sql, intervalStart.toEpochSecond(), intervalEnd.toEpochSecond(), sessionId);
-			return TransactionService.getTransactions(rs);
-		} catch (SQLException e) {
-			System.out.println(e.getMessage());
+	private static CategoryRuleMatcher getCategoryRuleMatcher(int sessionId) {
+		long version = ruleVersions.get(sessionId);
+		CategoryRuleMatcher matcher = ruleMatchers.get(sessionId);
+		if (matcher == null || matcher.getVersion() != version) {
+			matcher = new CategoryRuleMatcher(getAllCategoryRules(sessionId), version);
+			ruleMatchers.put(sessionId, matcher);
 		}
-		return null;
+		return matcher;
 	}
+	
+	/**
+	 * Marks the compiled category rules of the session as outdated, once the change has been committed.
+	 */
+	private static void categoryRulesChanged(int sessionId) {
+		afterCommit(() -> ruleVersions.increment(sessionId));
+		dataChanged(sessionId);
+	}
+	
 	/**
 	 * Splits the session into time intervals and returns these intervals
 	 * @param transactionIds
@@ -791,36 +1027,9 @@ public class DatabaseCommunication {
 		
 		
 		ZonedDateTime now = Instant.now().atZone(ZoneOffset.UTC);
-		ZonedDateTime timeMax = null;
 		
-		// The code below rounds down to the beginning of the Hour, Day, Week, Month or Year
-		if (interval.equals(ChronoUnit.WEEKS)) {		
-			// Rounds down to the nearest day
-			timeMax = now.truncatedTo(ChronoUnit.DAYS);
-			
-			// Rounds down to the first day of the week
-			timeMax = timeMax.minus(timeMax.getDayOfWeek().getValue() - 1, ChronoUnit.DAYS);
-			
-		} else if (interval.equals(ChronoUnit.MONTHS)) {
-			// Rounds down to the nearest day
-			timeMax = now.truncatedTo(ChronoUnit.DAYS);
-			
-			// Rounds down to the first day of the month
-			timeMax = timeMax.withDayOfMonth(1);
-			
-		} else if (interval.equals(ChronoUnit.YEARS)) {
-			// Rounds down to the nearest day
-			timeMax = now.truncatedTo(ChronoUnit.DAYS);
-			
-			// Rounds down to the first day of the month
-			timeMax = timeMax.withDayOfMonth(1);
-			
-			// Rounds down to the first month of the year
-			timeMax = timeMax.withMonth(1);
-		}
-		else {
-			timeMax = now.truncatedTo(interval);
-		}
+		// Rounds down to the beginning of the Hour, Day, Week, Month or Year
+		ZonedDateTime timeMax = TimeInterval.of(interval).truncate(now);
 
 		ZonedDateTime timeMin = timeMax.minus(nrIntervals, interval);
 
@@ -845,89 +1054,69 @@ public class DatabaseCommunication {
 		List<CandleStick> result = new ArrayList<>();
 		// Gets all intervals from now to a given number of intervals back
 		List<ZonedDateTime> zdt = getTransactionIntervals(time, nrIntervals);
-		// for each interval, get transactions and generate candlestick data points
-		for (ZonedDateTime z: zdt) {
-			List<Transaction> transactions = getAllTransactionsAtInterval(sessionId, z, time);
-			double open = getBalanceAtIntervalStart(sessionId, z);
-			result.add(getCandlestick(transactions, open, z));
+		if (zdt.isEmpty()) {
+			return result;
 		}
-		
-		return result;
-	}
-	
-	public static CandleStick getCandlestick(List<Transaction> transactions, double open, ZonedDateTime z) {
-		double close = open;
-		double volume = 0;
-		double high = open;
-		double low = open;
-		for (Transaction t: transactions) {
-			if (t.getType().equals(TransactionType.deposit)) {
-				close += t.getAmount();
+		String granularity = TimeInterval.of(time).name();
+		long first = zdt.get(0).toEpochSecond();
+		long end = zdt.get(zdt.size() - 1).plus(1, time).toEpochSecond();
+		
+		// The buckets in the intervals, starting with the last bucket before them for the opening balance
+		String sql = "SELECT bucket_start, open, close, high, low, volume FROM balanceRollups "
+				+ "WHERE session = ? AND granularity = ? AND bucket_start < ? AND bucket_start >= "
+				+ "coalesce((SELECT max(bucket_start) FROM balanceRollups "
+				+ "WHERE session = ? AND granularity = ? AND bucket_start < ?), ?) "
+				+ "ORDER BY bucket_start";
+		List<long[]> buckets = QueryTemplate.query(sql, rs -> new long[] { rs.getLong("bucket_start"),
+				rs.getLong("open"), rs.getLong("close"), rs.getLong("high"), rs.getLong("low"), rs.getLong("volume") },
+				sessionId, granularity, end, sessionId, granularity, first, first);
+		
+		// Intervals without transactions do not have a bucket and keep the balance of the previous one
+		long balance = 0;
+		int next = 0;
+		if (!buckets.isEmpty() && buckets.get(0)[0] < first) {
+			balance = buckets.get(0)[2];
+			next++;
+		}
+		for (ZonedDateTime z: zdt) {
+			long start = z.toEpochSecond();
+			if (next < buckets.size() && buckets.get(next)[0] == start) {
+				long[] b = buckets.get(next++);
+				result.add(new CandleStick(b[1], b[2], b[3], b[4], b[5], start));
+				balance = b[2];
 			} else {
-				close -= t.getAmount();
+				result.add(new CandleStick(balance, balance, balance, balance, 0, start));
 			}
-			volume+= t.getAmount();
-			high = Math.max(close, high);
-			low = Math.min(close, low);
 		}
-		if (z == null) {
-			z = ZonedDateTime.ofInstant(Instant.now(), ZoneOffset.UTC);
-		}
-		return new CandleStick(open, close, high, low, volume, z.toEpochSecond());
+		return result;
 	}
+	
 	/**
 	 * Gets the balance of the account at the start of an interval
-	 * @param transactionIds
 	 * @param intervalStart
-	 * @return Amount of money stored on the account before a given date
-	 */
-	public static double getBalanceAtIntervalStart(int sessionId, ZonedDateTime intervalStart) {
-		String sql = "SELECT sum(case when type='deposit' then amount else -amount end) as initial FROM transactions WHERE date < ? AND id IN (SELECT id FROM transactionIds WHERE session = ?)";
-		try (Connection conn = connect()){
-			ResultSet rs = runPreparedStatementQuery(conn, sql, intervalStart.toEpochSecond(), sessionId);
-			if (rs.next()) {
-				return rs.getDouble("initial");
-			}
-		} catch (SQLException e) {
-			System.out.println(e.getMessage());
-		}
-		return 0;
-		
+	 * 			Start of the interval in seconds since the epoch
+	 * @return Amount of money in cents stored on the account before a given date
+	 */
+	public static long getBalanceAtIntervalStart(int sessionId, long intervalStart) {
+		String sql = "SELECT sum(case when type='deposit' then amount else -amount end) as initial FROM transactions WHERE session = ? AND date < ?";
+		Long initial = QueryTemplate.queryForObject(sql, rs -> rs.getLong("initial"), sessionId, intervalStart);
+		return initial == null ? 0 : initial;
 	}
 	
 	/**
-	 * Gets the balance of the account at the current moment in time based on all previous
-	 * transactions
+	 * Gets the balance of the account at the current moment in time, as kept in the running totals of the session
 	 * @param transactionIds
-	 * @return Amount of money stored on the account
+	 * @return Amount of money in cents stored on the account
 	 */
-	public static double getBalance(int sessionId) {
-		String sql = "SELECT (sum(case when type='deposit' "
-				+ "then amount else -amount end)) as balance FROM transactions "
-				+ "WHERE id IN (SELECT id FROM transactionIds WHERE session = ?)";
-		try (Connection conn = connect()){
-			
-			ResultSet rs = runPreparedStatementQuery(conn, sql, sessionId);
-			if (rs.next()) {
-				return rs.getDouble("balance");
-			}
-		} catch (SQLException e) {
-			System.out.println(e.getMessage());
-		}
-		return 0;
-		
+	public static long getBalance(int sessionId) {
+		String sql = "SELECT balance FROM sessionStats WHERE session = ?";
+		Long balance = QueryTemplate.queryForObject(sql, rs -> rs.getLong("balance"), sessionId);
+		return balance == null ? 0 : balance;
 	}
 	
 	public static List<SavingGoal> getAllSavingGoals(int sessionId){
-		String sql = "SELECT * FROM savingGoals WHERE id IN (SELECT id FROM savingGoalIds WHERE session = ?)";
-
-		try (Connection conn = connect()) {
-	        ResultSet rs  = runPreparedStatementQuery(conn, sql, sessionId);
-	        return SavingGoalService.getSavingGoals(rs);
-	    } catch (SQLException e) {
-	        System.out.println(e.getMessage());
-	    }
-		return null;
+		String sql = "SELECT * FROM savingGoals WHERE session = ?";
+		return QueryTemplate.query(sql, SavingGoalService.SAVING_GOAL_MAPPER, sessionId);
 	}
 	
 	/**
@@ -938,13 +1127,13 @@ public class DatabaseCommunication {
 	public static SavingGoal addSavingGoal(SavingGoal sg, int sessionId) {
 		
 		// Generate new id
-		int newId = DatabaseCommunication.getLastSavingGoalID() + 1;
+		int newId = nextId("savingGoals");
 		sg.setId(newId);
 		
-		String sql = "INSERT INTO savingGoals VALUES(?,?,?,?,?,?)";
-        runPreparedStatementUpdate(sql, sg.getId(), sg.getName(), sg.getGoal(), sg.getSavePerMonth(), sg.getMinBalanceRequired(), 0.0);
-        
-        DatabaseCommunication.addSavingGoalId(sessionId, sg.getId());
+		String sql = "INSERT INTO savingGoals(id, name, goal, savePerMonth, minBalanceRequired, balance, session) VALUES(?,?,?,?,?,?,?)";
+        QueryTemplate.update(sql, sg.getId(), sg.getName(), sg.returnGoalCents(), sg.returnSavePerMonthCents(),
+        		sg.returnMinBalanceRequiredCents(), 0, sessionId);
+        dataChanged(sessionId);
         
         return sg;
 	}
@@ -957,19 +1146,8 @@ public class DatabaseCommunication {
 	 * 			SavingGoal object from the database
 	 */
 	public static SavingGoal getSavingGoal(int id, int sessionId) {
-		String sql = "SELECT * FROM savingGoals WHERE id = ? AND id IN (SELECT id FROM savingGoalIds WHERE session = ?)";
-		try (Connection conn = connect()) {
-	        ResultSet rs  = runPreparedStatementQuery(conn, sql, id, sessionId);
-	            
-	        List<SavingGoal> goals = SavingGoalService.getSavingGoals(rs);
-	        
-	        if (goals.size() == 1) {
-	        		return goals.get(0);
-	        }
-	    } catch (SQLException e) {
-	        System.out.println(e.getMessage());
-	    }
-		return null;
+		String sql = "SELECT * FROM savingGoals WHERE id = ? AND session = ?";
+		return QueryTemplate.queryForObject(sql, SavingGoalService.SAVING_GOAL_MAPPER, id, sessionId);
 	}
 	
 	/**
@@ -978,11 +1156,14 @@ public class DatabaseCommunication {
 	 * 			The id of the saving goal to delete
 	 */
 	public static void deleteSavingGoal(int id, int sessionId) {
-		returnMoney(id, sessionId);
-		
-		String sql = "DELETE FROM savingGoals WHERE id = ? AND id IN (SELECT id FROM savingGoalIds WHERE session = ?)";
-        runPreparedStatementUpdate(sql, id, sessionId);
-        
+		inTransaction(() -> {
+			returnMoney(id, sessionId);
+			
+			String sql = "DELETE FROM savingGoals WHERE id = ? AND session = ?";
+	        QueryTemplate.update(sql, id, sessionId);
+	        return null;
+		});
+		dataChanged(sessionId);
 
 	}
 	
@@ -992,126 +1173,151 @@ public class DatabaseCommunication {
 	 * @param sessionId id of the session to which the transactions belong
 	 */
 	public static void returnMoney(int savingGoalId, int sessionId) {
-		List<Transaction> internalTransactions = new ArrayList<>();
 		Instant now = Instant.now();
-		String sql = "SELECT * FROM transactions WHERE id IN "
+		String sql = TransactionService.TRANSACTION_SELECT + " WHERE t.id IN "
 				+ " (SELECT transactionId FROM internalTransactions WHERE savingGoalId = ?)";
-		try (Connection conn = connect()){
-			internalTransactions = TransactionService.getTransactions(runPreparedStatementQuery(conn, sql, savingGoalId));
-		} catch (SQLException e) {
-			System.out.println(e.getMessage());
-		}
+		List<Transaction> internalTransactions = QueryTemplate.query(sql, TransactionService.TRANSACTION_MAPPER, savingGoalId);
 		for (Transaction t: internalTransactions) {
-			addInternalTransactionReturnMoney(t.getAmount(), now.getEpochSecond(), sessionId);
+			addInternalTransactionReturnMoney(t.returnAmountCents(), now.getEpochSecond(), sessionId);
 		}
 	}
 	
 	
 	/**
-	 * Updates the saving goal balance with the given id 
-	 * @param t
-	 * 			The updated saving goal
-	 * @param id
-	 * 			Id of the saving goal
+	 * Puts money aside for the saving goals at the beginnings of the months between the last transaction
+	 * of the session and the new one. Must run inside the unit of work that adds the transaction.
 	 */
-	public static void updateSavingGoalBalance(SavingGoal sg, int id, int sessionId) {
-		String sql = "UPDATE savingGoals SET balance = ? "
-                + "WHERE id = ? AND id IN (SELECT id FROM savingGoalIds WHERE session = ?)";
-        runPreparedStatementUpdate(sql, sg.getBalance(), id, sessionId);
+	public static void applySavingGoals(Transaction newTransaction, int sessionId) {
+		processSavingGoals(sessionId, newTransaction.returnUnixTimestamp());
 	}
 	
+	/**
+	 * Puts money aside for the saving goals of every session at the beginnings of the months that passed
+	 * since its last transaction, without waiting for the next transaction of the session.
+	 * @param unixTimestamp
+	 * 			The current date
+	 * @return
+	 * 			The number of sessions for which money was put aside
+	 */
+	public static int applySavingGoals(long unixTimestamp) {
+		String sql = "SELECT s.session FROM sessionStats s WHERE s.count > 0 AND s.last_date < ? "
+				+ "AND EXISTS (SELECT 1 FROM savingGoals g WHERE g.session = s.session AND g.balance < g.goal)";
+		long monthStart = TimeInterval.MONTH.truncate(unixTimestamp);
+		List<Integer> sessionIds = QueryTemplate.query(sql, rs -> rs.getInt("session"), monthStart);
+		
+		int processed = 0;
+		for (int sessionId : sessionIds) {
+			try {
+				if (inTransaction(() -> processSavingGoals(sessionId, unixTimestamp))) {
+					processed++;
+				}
+			} catch (DatabaseException e) {
+				// The session is processed again by its next transaction
+				System.out.println(e.getMessage());
+			}
+		}
+		return processed;
+	}
 	
-	public static void applySavingGoals(Transaction newTransaction, int sessionId) {
-		Transaction lastTransaction = getLastTransaction(sessionId);
-		List<ZonedDateTime> crossings = new ArrayList<>();
-		int diff = 0;
+	/**
+	 * Puts money aside for the saving goals of the session at the beginnings of the months between its last
+	 * transaction and the given date. The internal transactions and the new balances of the goals are written
+	 * in batches. Must run inside a unit of work.
+	 * @param unixTimestamp
+	 * 			Date of the new transaction, or the current date
+	 * @return
+	 * 			Whether any money was put aside
+	 */
+	private static boolean processSavingGoals(int sessionId, long unixTimestamp) {
+		Long last = transactionDates.getLast(sessionId);
+		if (last == null) {
+			return false;
+		}
+		List<Long> monthStarts = SavingGoalProcessor.monthStarts(last, unixTimestamp);
+		if (monthStarts.isEmpty()) {
+			return false;
+		}
 		
-		if (lastTransaction != null) {
-			ZonedDateTime lastTransactionTime = ZonedDateTime.ofInstant(Instant.ofEpochSecond(lastTransaction.returnUnixTimestamp()), ZoneOffset.UTC);
-			ZonedDateTime newTransactionTime = ZonedDateTime.ofInstant(Instant.ofEpochSecond(newTransaction.returnUnixTimestamp()), ZoneOffset.UTC);
-			
-			// The number of "month crossings" between the last and newest transaction
-			diff = Math.max((newTransactionTime.getYear() - lastTransactionTime.getYear()) * 12 +  
-					   (newTransactionTime.getMonthValue() - lastTransactionTime.getMonthValue()), 0);
-			
-			ZonedDateTime lastMonthBeginning = newTransactionTime.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1);
-			
-			for (int i = 0; i < diff; i++) {
-				crossings.add(lastMonthBeginning.minus(i, ChronoUnit.MONTHS));
-			}
-			
+		SavingGoalProcessor processor = new SavingGoalProcessor(getAllSavingGoals(sessionId), getBalance(sessionId));
+		for (long monthStart : monthStarts) {
+			processor.process(monthStart);
+		}
+		List<long[]> allocations = processor.getAllocations();
+		if (allocations.isEmpty()) {
+			return false;
 		}
 		
-		double accountBalance = getBalance(sessionId);
-
+		List<Object[]> transactions = new ArrayList<>();
+		List<Object[]> links = new ArrayList<>();
+		long total = 0;
+		long earliest = Long.MAX_VALUE;
+		long latest = Long.MIN_VALUE;
+		for (long[] allocation : allocations) {
+			int id = nextId("transactions");
+			transactions.add(new Object[] { id, allocation[2], allocation[1], "", "", TransactionType.withdrawal.toString(), sessionId });
+			links.add(new Object[] { (int) allocation[0], id });
+			total += allocation[1];
+			earliest = Math.min(earliest, allocation[2]);
+			latest = Math.max(latest, allocation[2]);
+		}
+		QueryTemplate.batchUpdate("INSERT INTO transactions(id, date, amount, description, externalIBAN, type, session, is_internal) "
+				+ "VALUES(?,?,?,?,?,?,?,1)", transactions);
+		QueryTemplate.batchUpdate("INSERT INTO internalTransactions (savingGoalId, transactionId) VALUES (?,?)", links);
+		
+		// The internal transactions are all withdrawals after the last transaction of the session
+		String update = "UPDATE sessionStats SET balance = balance - ?, "
+				+ "low = min(low, balance - ?), "
+				+ "last_date = max(last_date, ?), "
+				+ "count = count + ? "
+				+ "WHERE session = ?";
+		QueryTemplate.update(update, total, total, latest, allocations.size(), sessionId);
+		onRollback(() -> transactionDates.forget(sessionId));
+		transactionDates.add(sessionId, latest);
+		recomputeBalanceRollups(sessionId, earliest);
+		
+		List<Object[]> balances = new ArrayList<>();
+		for (SavingGoal sg : processor.getChangedGoals()) {
+			balances.add(new Object[] { sg.returnBalanceCents(), sg.getId(), sessionId });
+		}
+		QueryTemplate.batchUpdate("UPDATE savingGoals SET balance = ? WHERE id = ? AND session = ?", balances);
 		
-		List<SavingGoal> savingGoals = getAllSavingGoals(sessionId);
-		// For every beginning of the month go over the saving goals
-		for (int i = 0; i < diff; i++) {
-			if (savingGoals == null) {
-				savingGoals = new ArrayList<>();
-			}
-			// Go through every saving goal and try to apply it
-			for (SavingGoal sg : savingGoals) {
-				double sgBalance = sg.getBalance();
-				// Get the amount that needs to be added to the goal for the month
-				double perMonth = Math.min(sg.getSavePerMonth(), sg.getGoal() - sgBalance);
-
-				// There should be enough money on the account for putting aside and the goal must be still unmet
-				if (accountBalance >= sg.getMinBalanceRequired() && accountBalance >= perMonth && sgBalance <= sg.getGoal() &&
-						perMonth > 0) {
-					
-					// Add an internal transaction to put money aside for the goal
-					addInternalTransaction(perMonth, crossings.get(i).toEpochSecond(), sessionId, sg.getId());
-					
-					// If the saving goal is met, add a message
-					if (sgBalance + perMonth == sg.getGoal()) {
-						String msg = "Saving goal with id " + sg.getId() + " has been filled!";
-						addMessage(msg, MessageType.info, newTransaction.returnUnixTimestamp(), sessionId);
-					}
-					
-
-					sg.setBalance(sgBalance + perMonth);
-					updateSavingGoalBalance(sg, sg.getId(), sessionId);
-					accountBalance -= perMonth;
-				}
-			}
+		for (SavingGoal sg : processor.getFilledGoals()) {
+			String msg = "Saving goal with id " + sg.getId() + " has been filled!";
+			addMessage(msg, MessageType.info, unixTimestamp, sessionId);
 		}
+		dataChanged(sessionId);
+		return true;
 	}
 	
+	/**
+	 * Gets all payment requests of the session together with the transactions paid for them.
+	 * The transactions of all requests are loaded with a single query.
+	 */
 	public static List<PaymentRequest> getAllPaymentRequests(int sessionId){
-		String sql = "SELECT * FROM paymentRequests WHERE id IN (SELECT id FROM paymentRequestIds WHERE session = ?)";
-
-		try (Connection conn = connect()) {
-	        ResultSet rs  = runPreparedStatementQuery(conn, sql, sessionId);
-	        return PaymentRequestService.getPaymentRequests(rs);
-	    } catch (SQLException e) {
-	        System.out.println(e.getMessage());
-	    }
-		return null;
-	}
-	
-	public static List<PaymentRequest> getAllUnfilledAndExpiredPaymentRequests(int sessionId, long unixTimestamp){
-		String sql = "SELECT * FROM paymentRequests WHERE id IN (SELECT id FROM paymentRequestIds WHERE session = ?) AND due_date < ? AND filled = 0";
+		String sql = "SELECT * FROM paymentRequests WHERE session = ? ORDER BY id";
+		List<PaymentRequest> paymentRequests = QueryTemplate.query(sql, PaymentRequestService.PAYMENT_REQUEST_MAPPER, sessionId);
+		if (paymentRequests.isEmpty()) {
+			return paymentRequests;
+		}
 		
-		try(Connection conn = connect()){
-			return PaymentRequestService.getPaymentRequests(runPreparedStatementQuery(conn, sql, sessionId, unixTimestamp));
-		} catch (SQLException e) {
-			e.printStackTrace();
+		Map<Integer, PaymentRequest> byId = new HashMap<>();
+		for (PaymentRequest pr : paymentRequests) {
+			byId.put(pr.getId(), pr);
 		}
 		
-		return null;
-	}
-	
-	public static List<Transaction> getTransactionsForPaymentRequest(int paymentRequestId){
-		String sql = "SELECT * FROM transactions WHERE id IN (SELECT transactionId FROM paymentRequestTransactions WHERE paymentRequestId = ?)";
-		try (Connection conn = connect()) {
-	        ResultSet rs  = runPreparedStatementQuery(conn, sql, paymentRequestId);
-	        return TransactionService.getTransactions(rs);
-	    } catch (SQLException e) {
-	        System.out.println(e.getMessage());
-	    }
-		return null;
+		String transactionSql = "SELECT prt.paymentRequestId, " + TransactionService.TRANSACTION_COLUMNS
+				+ " FROM " + TransactionService.TRANSACTION_TABLES
+				+ " JOIN paymentRequestTransactions prt ON prt.transactionId = t.id"
+				+ " JOIN paymentRequests pr ON pr.id = prt.paymentRequestId"
+				+ " WHERE pr.session = ? ORDER BY t.id";
+		List<Map.Entry<Integer, Transaction>> paid = QueryTemplate.query(transactionSql, rs ->
+				new AbstractMap.SimpleEntry<>(rs.getInt("paymentRequestId"), TransactionService.TRANSACTION_MAPPER.mapRow(rs)),
+				sessionId);
+		for (Map.Entry<Integer, Transaction> entry : paid) {
+			byId.get(entry.getKey()).getTransactions().add(entry.getValue());
+		}
+		
+		return paymentRequests;
 	}
 	
 	/**
@@ -1122,51 +1328,54 @@ public class DatabaseCommunication {
 	public static PaymentRequest addPaymentRequest(PaymentRequest pr, int sessionId) {
 		
 		// Generate new id
-		int newId = DatabaseCommunication.getLastPaymentRequestID() + 1;
+		int newId = nextId("paymentRequests");
 		pr.setId(newId);
 		
-		String sql = "INSERT INTO paymentRequests(id, description, due_date, amount, number_of_requests) VALUES(?,?,?,?,?)";
-        runPreparedStatementUpdate(sql, pr.getId(), pr.getDescription(),
-        		pr.returnUnixTimestamp(), pr.getAmount(), pr.getNumber_of_requests());
-        
-        addPaymentRequestId(sessionId, pr.getId());
+		String sql = "INSERT INTO paymentRequests(id, description, due_date, amount, number_of_requests, session) VALUES(?,?,?,?,?,?)";
+		inTransaction(() -> {
+	        QueryTemplate.update(sql, pr.getId(), pr.getDescription(),
+	        		pr.returnUnixTimestamp(), pr.returnAmountCents(), pr.getNumber_of_requests(), sessionId);
+	        onRollback(() -> openPaymentRequests.forget(sessionId));
+	        openPaymentRequests.add(sessionId, new OpenRequest(pr.getId(), pr.returnAmountCents(),
+	        		pr.returnUnixTimestamp(), pr.getNumber_of_requests(), 0, false));
+	        return null;
+		});
+        dataChanged(sessionId);
         
         return pr;
 	}
 	
 	/**
-	 * Go through every payment request and check if it is applicable ( i.e. the amount is right, is not filled and is
-	 * the transaction is before the due date )
+	 * Finds the open payment request a deposit pays, i.e. the one with the same amount and the earliest
+	 * due date that is not before the transaction, and adds the transaction to it.
+	 * Must run inside the unit of work that adds the transaction.
 	 * @param t Transaction that is to be added
 	 * @param sessionId
 	 */
 	public static void applyPaymentRequests(Transaction t , int sessionId) {
-		List<PaymentRequest> prList = getAllPaymentRequests(sessionId);
-		
-		for (PaymentRequest pr: prList) {
-			if (t.getType().equals(TransactionType.deposit) && !pr.isFilled() && t.getAmount() == pr.getAmount() && t.returnUnixTimestamp() <= pr.returnUnixTimestamp()) {
-				if (pr.transactionNumber() + 1 == pr.getNumber_of_requests()) {
-					fillPaymentRequest(pr.getId());
-					String msg = "Payment request with id " + pr.getId() + " filled!";
-					addMessage(msg, MessageType.info, t.returnUnixTimestamp(), sessionId);
-				}
-				addPaymentRequestTransaction(pr.getId(), t.getId());
-				return;
-			}
+		if (!t.getType().equals(TransactionType.deposit)) {
+			return;
+		}
+		OpenRequest pr = openPaymentRequests.find(sessionId, t.returnAmountCents(), t.returnUnixTimestamp());
+		if (pr == null) {
+			return;
 		}
 		
+		onRollback(() -> openPaymentRequests.forget(sessionId));
+		if (pr.isLastPayment()) {
+			fillPaymentRequest(pr.getId());
+			String msg = "Payment request with id " + pr.getId() + " filled!";
+			addMessage(msg, MessageType.info, t.returnUnixTimestamp(), sessionId);
+		}
+		addPaymentRequestTransaction(pr.getId(), t.getId());
+		openPaymentRequests.pay(sessionId, pr);
+		dataChanged(sessionId);
 	}
 	
 	
 	public static List<Message> getAllUnreadMessages(int sessionId){
-		String sql = "SELECT * FROM messages WHERE id IN (SELECT id FROM messageIds WHERE session = ?) AND read = 0";
-		try(Connection conn = connect()){
-			return MessageService.getMessages(runPreparedStatementQuery(conn, sql, sessionId));
-		} catch (SQLException e) {
-			System.out.println("Error getting all messages, sql error: " + e.getMessage());
-		}
-		
-		return null;
+		String sql = "SELECT * FROM messages WHERE session = ? AND read = 0";
+		return QueryTemplate.query(sql, MessageService.MESSAGE_MAPPER, sessionId);
 	}
 	
 	/**
@@ -1176,53 +1385,35 @@ public class DatabaseCommunication {
 	 * @return boolean true if exists, false otherwise
 	 */
 	public static boolean messageExists(int sessionId, int messageId) {
-		String sql = "SELECT * FROM messages WHERE id IN (SELECT id FROM messageIds WHERE session = ?) AND id = ?";
-		
-		try(Connection conn = connect()) {
-			ResultSet rs = runPreparedStatementQuery(conn, sql, sessionId, messageId);
-			if (rs.next()) {
-				return true;
-			}
-		} catch (SQLException e) {
-			e.printStackTrace();
-		}
-		return false;
+		String sql = "SELECT * FROM messages WHERE session = ? AND id = ?";
+		return QueryTemplate.exists(sql, sessionId, messageId);
 	}
 	
 	public static boolean messageWithBalanceHighExists(int sessionId) {
-		String sql = "SELECT * FROM messages WHERE id IN (SELECT id FROM messageIds WHERE session = ?) AND message LIKE ? AND read = 0";
-		
-		try(Connection conn = connect()) {
-			ResultSet rs = runPreparedStatementQuery(conn, sql, sessionId, "Your balance reached a new high%");
-			if (rs.next()) {
-				return true;
-			}
-		} catch (SQLException e) {
-			e.printStackTrace();
-		}
-		return false;
+		String sql = "SELECT * FROM messages WHERE session = ? AND read = 0 AND message LIKE ?";
+		return QueryTemplate.exists(sql, sessionId, "Your balance reached a new high%");
 	}
 	
 	public static void addMessage(String message, MessageType type, long unixTimestamp, int sessionId) {
 		// Generate new id
-		int newId = DatabaseCommunication.getLastMessageID() + 1;
-		
+		int newId = nextId("messages");
 		
-		String sql = "INSERT INTO messages(id, message, date, type) VALUES(?,?,?,?)";
 		
-		runPreparedStatementUpdate(sql, newId, message, unixTimestamp, type.toString());
+		String sql = "INSERT INTO messages(id, message, date, type, session) VALUES(?,?,?,?,?)";
 		
-		addMessageId(sessionId, newId);
+		QueryTemplate.update(sql, newId, message, unixTimestamp, type.toString(), sessionId);
+		dataChanged(sessionId);
 	}
 	
 	public static void readMessage(int sessionId, int messageId) {
-		String sql = "UPDATE messages SET read = 1 WHERE id IN (SELECT id FROM messageIds WHERE session = ?) AND id = ?";
-		runPreparedStatementUpdate(sql, sessionId, messageId);
+		String sql = "UPDATE messages SET read = 1 WHERE session = ? AND id = ?";
+		QueryTemplate.update(sql, sessionId, messageId);
+		dataChanged(sessionId);
 	}
 	
 	public static void fillPaymentRequest(int paymentRequestId) {
 		String sql = "UPDATE paymentRequests SET filled = 1 WHERE id = ?";
-		runPreparedStatementUpdate(sql, paymentRequestId);
+		QueryTemplate.update(sql, paymentRequestId);
 
 		
 	}
@@ -1230,9 +1421,10 @@ public class DatabaseCommunication {
 	/**
 	 * Performs checks and adds messages whenever is the case
 	 * @param sessionId Id of the session for which checks are made
+	 * @param maxBefore highest balance in cents reached before the new transaction was added
 	 */
-	public static void applyMessages(int sessionId, Transaction newTransaction, List<Transaction> previousTransactions) {
-		double bal = getBalance(sessionId);
+	public static void applyMessages(int sessionId, Transaction newTransaction, long maxBefore) {
+		long bal = getBalance(sessionId);
 		long unixTimestamp = newTransaction.returnUnixTimestamp();
 		
 		if (bal < 0) {
@@ -1240,55 +1432,89 @@ public class DatabaseCommunication {
 			addMessage(msg, MessageType.warning, unixTimestamp, sessionId);
 		}
 		
-		Transaction first = getFirstTransaction(sessionId);
+		Long first = transactionDates.getFirst(sessionId);
 		
 		// If there is at least one transaction
 		if (first != null) {
-			ZonedDateTime firstDate = ZonedDateTime.ofInstant(Instant.ofEpochSecond(first.returnUnixTimestamp()), ZoneOffset.UTC);
+			ZonedDateTime firstDate = ZonedDateTime.ofInstant(Instant.ofEpochSecond(first), ZoneOffset.UTC);
 			ZonedDateTime lastDate = ZonedDateTime.ofInstant(Instant.ofEpochSecond(unixTimestamp), ZoneOffset.UTC);
 			// If there is at least 3 months of data available
 			if (getMonthDiff(firstDate, lastDate) >= 3 && newTransaction.getType().equals(TransactionType.deposit)) {
 
-				double maxBefore = getCandlestick(previousTransactions, 0, null).getHigh();
 				// If there isn't already an unread message about the new high of the balance
 				if (!messageWithBalanceHighExists(sessionId) && bal > maxBefore) {
 					// Generate an info message and add it
-					String msg = "Your balance reached a new high of " + bal + "!";
+					String msg = "Your balance reached a new high of " + Money.fromCents(bal) + "!";
 					addMessage(msg, MessageType.info, unixTimestamp, sessionId);
 				}
 			}
 		}
 		
-		// Add a warning for every payment request not filled on time
-		List<PaymentRequest> paymentRequests = getAllUnfilledAndExpiredPaymentRequests(sessionId, unixTimestamp);
-		for (PaymentRequest pr: paymentRequests) {
+		applyPaymentRequestDeadlines(sessionId, unixTimestamp);
+	}
+	
+	/**
+	 * Adds a warning for every payment request of the session that is due before the given date and
+	 * has not been filled, once per payment request.
+	 * Must run inside a unit of work.
+	 * @param unixTimestamp
+	 * 			The current date, either of the new transaction or of the clock
+	 */
+	private static void applyPaymentRequestDeadlines(int sessionId, long unixTimestamp) {
+		List<OpenRequest> expired = openPaymentRequests.expire(sessionId, unixTimestamp);
+		if (expired.isEmpty()) {
+			return;
+		}
+		onRollback(() -> openPaymentRequests.forget(sessionId));
+		for (OpenRequest pr : expired) {
+			QueryTemplate.update("UPDATE paymentRequests SET expiry_notified = 1 WHERE id = ?", pr.getId());
 			String msg = "Payment request with id " + pr.getId() + " has not been filled on time!";
 			addMessage(msg, MessageType.warning, unixTimestamp, sessionId);
 		}
 	}
 	
+	/**
+	 * Adds the warnings of the payment requests that have not been filled before the given date, for all
+	 * sessions. Used to warn about due dates that pass in wall-clock time without any new transactions.
+	 * @param unixTimestamp
+	 * 			The current date
+	 * @return
+	 * 			The number of sessions with new warnings
+	 */
+	public static int expirePaymentRequests(long unixTimestamp) {
+		String sql = "SELECT DISTINCT session FROM paymentRequests WHERE filled = 0 AND expiry_notified = 0 AND due_date < ?";
+		List<Integer> sessionIds = QueryTemplate.query(sql, rs -> rs.getInt("session"), unixTimestamp);
+		int expired = 0;
+		for (int sessionId : sessionIds) {
+			try {
+				inTransaction(() -> {
+					applyPaymentRequestDeadlines(sessionId, unixTimestamp);
+					return null;
+				});
+				expired++;
+			} catch (DatabaseException e) {
+				// The warnings of the session are added on the next check
+				System.out.println(e.getMessage());
+			}
+		}
+		return expired;
+	}
+	
 	public static MessageRule addMessageRule(MessageRule mr, int sessionId) {
 		// Generate new id
-		int newId = DatabaseCommunication.getLastMessageRuleID() + 1;
+		int newId = nextId("messageRules");
 		mr.setId(newId);
 		
-		String sql = "INSERT INTO messageRules VALUES(?,?,?,?)";
-        runPreparedStatementUpdate(sql, mr.getId(), mr.getType(), mr.getValue(), mr.getCategory_id());
-        
-        DatabaseCommunication.addMessageRuleId(sessionId, mr.getId());
+		String sql = "INSERT INTO messageRules(id, type, value, category_id, session) VALUES(?,?,?,?,?)";
+        QueryTemplate.update(sql, mr.getId(), mr.getType(), mr.returnValueCents(), mr.getCategory_id(), sessionId);
+        dataChanged(sessionId);
         
         return mr;
 	}
 	
 	public static List<MessageRule> getMessageRules(int sessionId){
-		String sql = "SELECT * FROM messageRules WHERE id IN (SELECT id FROM messageRuleIds WHERE session = ?)";
-		Connection conn = connect();
-		try {
-			return MessageRuleService.getMessageRules(runPreparedStatementQuery(conn, sql, sessionId));
-		} catch (SQLException e) {
-			e.printStackTrace();
-		}
-		return null;
+		String sql = "SELECT * FROM messageRules WHERE session = ?";
+		return QueryTemplate.query(sql, MessageRuleService.MESSAGE_RULE_MAPPER, sessionId);
 	}
 	
 	/**
@@ -1299,10 +1525,13 @@ public class DatabaseCommunication {
 	 */
 	public static void applyMessageRules(int sessionId, Transaction newTransaction) {
 		List<MessageRule> messageRules = getMessageRules(sessionId);
+		if (!messageRules.isEmpty()) {
+			onRollback(() -> spendingWindows.forget(sessionId));
+		}
 		
 		for (MessageRule mr : messageRules) {
-			double spending = getCategorySpending(sessionId, mr.getCategory_id(), newTransaction.returnUnixTimestamp(), 30);
-			if (spending >= mr.getValue()) {
+			long spending = spendingWindows.getSpending(sessionId, mr.getCategory_id(), newTransaction.returnUnixTimestamp());
+			if (spending >= mr.returnValueCents()) {
 				String msg = "Spending exceeded threshold of " + mr.getValue() + " on category with id " + mr.getCategory_id() + ".";
 				addMessage(msg, mr.getType(), newTransaction.returnUnixTimestamp(), sessionId);
 			}
@@ -1316,64 +1545,13 @@ public class DatabaseCommunication {
 	 * @return true if transaction is in the future, false otherwise
 	 */
 	public static boolean isTransactionInTheFuture(int sessionId, Transaction newTransaction) {
-		Transaction lastTransaction = getLastTransaction(sessionId);
-		if (lastTransaction == null || newTransaction.returnUnixTimestamp() >= lastTransaction.returnUnixTimestamp()) {
+		Long last = transactionDates.getLast(sessionId);
+		if (last == null || newTransaction.returnUnixTimestamp() >= last) {
 			return true;
 		}
 		return false;
 	}
 	
-	/**
-	 * Returns the amount of money that was withdrawn from the account in a given period for a category in a session.
-	 * @param sessionId id of the session
-	 * @param categoryId id of the category to monitor spending for
-	 * @param latestTransactionTime time of the latest transaction in the system
-	 * @param nrDays number of days before the latest transaction to start monitoring
-	 * @return amount of the amount of money spend on a category in the given number of days
-	 */
-	public static double getCategorySpending(int sessionId, int categoryId, long latestTransactionTime, int nrDays) {
-		String sql = "SELECT sum(amount) as spending FROM transactions WHERE id IN (SELECT id FROM transactionIds WHERE session = ?) AND categoryID = ? AND "
-				+ "type = 'withdrawal' AND date >= ? AND date <= ?";
-		try (Connection conn = connect()) {
-			ResultSet rs = runPreparedStatementQuery(conn, sql, sessionId, categoryId,
-					ZonedDateTime.ofInstant(Instant.ofEpochSecond(latestTransactionTime), ZoneOffset.UTC).minus(nrDays, ChronoUnit.DAYS).toEpochSecond(), latestTransactionTime);
-			return rs.getDouble("spending");
-		} catch (SQLException e) {
-			e.printStackTrace();
-		}
-		return 0;
-	}
-	
-	
-
-	
-	public static void fillStatementWithParams(PreparedStatement stmt, Object[] params) {
-		for (int i = 0; i < params.length; i++) {
-			try {
-				stmt.setObject(i + 1, params[i]);
-			} catch (SQLException e) {
-				e.printStackTrace();
-			}
-		}
-	}
-	
-	private static ResultSet runPreparedStatementQuery(Connection conn, String sql, Object... params) throws SQLException {
-		PreparedStatement statement = conn.prepareStatement(sql);
-		fillStatementWithParams(statement, params);
-		return statement.executeQuery();
-	}
-	
-	private static void runPreparedStatementUpdate(String sql, Object... params) {
-		try(Connection conn = connect()){
-			PreparedStatement statement = conn.prepareStatement(sql);
-			fillStatementWithParams(statement, params);
-			statement.executeUpdate();
-		} catch (SQLException e) {
-			System.out.println(sql);
-			System.out.println(e.getMessage());
-		}
-	}
-	
 	private static int getMonthDiff(ZonedDateTime t1, ZonedDateTime t2) {
 		ZonedDateTime earlier;
 		ZonedDateTime later;
@@ -1391,36 +1569,6 @@ public class DatabaseCommunication {
 
 
 
-	public static int getLastTransactionID() {
-		return getMaxIndex("transactions");
-	}
-	
-	public static int getLastMessageID() {
-		return getMaxIndex("messages");
-	}
-
-
-
-	public static int getLastCategoryID() {
-		return getMaxIndex("categories");
-	}
-	
-	public static int getLastCategoryRuleID() {
-		return getMaxIndex("categoryRules");
-	}
-	
-	public static int getLastSavingGoalID() {
-		return getMaxIndex("savingGoals");
-	}
-	
-	public static int getLastPaymentRequestID() {
-		return getMaxIndex("paymentRequests");
-	}
-	
-	public static int getLastMessageRuleID() {
-		return getMaxIndex("messageRules");
-	}
-	
 	public static void main(String[] args) {
 		/*String sql = "PRAGMA foreign_keys";
         try (Connection conn = connect();
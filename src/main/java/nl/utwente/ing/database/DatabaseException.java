@@ -0,0 +1,13 @@
+package nl.utwente.ing.database;
+
+import java.sql.SQLException;
+
+/**
+ * Thrown when a query or a unit of work failed. All changes of a failed unit of work have been rolled back.
+ */
+@SuppressWarnings("serial")
+public class DatabaseException extends RuntimeException {
+	public DatabaseException(SQLException cause) {
+		super(cause.getMessage(), cause);
+	}
+}
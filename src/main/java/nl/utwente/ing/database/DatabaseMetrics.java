@@ -0,0 +1,81 @@
+package nl.utwente.ing.database;
+
+import java.sql.SQLException;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exposes the database connection pool metrics over JMX.
+ */
+@Component
+@ManagedResource(objectName = "nl.utwente.ing:type=Database,name=DatabaseMetrics")
+public class DatabaseMetrics {
+	
+	@ManagedAttribute(description = "Maximum number of pooled connections")
+	public int getPoolMaxSize() {
+		return DatabaseCommunication.getPool().getMaxSize();
+	}
+	
+	@ManagedAttribute(description = "Number of open pooled connections")
+	public int getPoolOpenConnections() {
+		return DatabaseCommunication.getPool().getOpenConnections();
+	}
+	
+	@ManagedAttribute(description = "Number of connections currently handed out")
+	public int getPoolActiveConnections() {
+		return DatabaseCommunication.getPool().getActiveConnections();
+	}
+	
+	@ManagedAttribute(description = "Fraction of the pool that is currently handed out")
+	public double getPoolUtilisation() {
+		return DatabaseCommunication.getPool().getUtilisation();
+	}
+	
+	@ManagedAttribute(description = "Total number of connections handed out")
+	public long getPoolAcquisitions() {
+		return DatabaseCommunication.getPool().getAcquisitions();
+	}
+	
+	@ManagedAttribute(description = "Average time spent waiting for a connection in milliseconds")
+	public double getPoolAverageWaitMillis() {
+		return DatabaseCommunication.getPool().getAverageWaitMillis();
+	}
+	
+	@ManagedAttribute(description = "Longest time spent waiting for a connection in milliseconds")
+	public double getPoolMaxWaitMillis() {
+		return DatabaseCommunication.getPool().getMaxWaitMillis();
+	}
+	
+	@ManagedAttribute(description = "Number of writes waiting for the database writer")
+	public int getWriterQueueLength() {
+		DatabaseWriter writer = writer();
+		return writer == null ? 0 : writer.getQueueLength();
+	}
+	
+	@ManagedAttribute(description = "Number of group commits done by the database writer")
+	public long getWriterCommittedGroups() {
+		DatabaseWriter writer = writer();
+		return writer == null ? 0 : writer.getCommittedGroups();
+	}
+	
+	@ManagedAttribute(description = "Number of writes committed by the database writer")
+	public long getWriterCommittedWrites() {
+		DatabaseWriter writer = writer();
+		return writer == null ? 0 : writer.getCommittedWrites();
+	}
+	
+	@ManagedAttribute(description = "Number of statements that were left open until their connection was closed")
+	public long getLeakedStatements() {
+		return ConnectionHandle.getLeakedStatements();
+	}
+	
+	private DatabaseWriter writer() {
+		try {
+			return DatabaseCommunication.getWriter();
+		} catch (SQLException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,333 @@
+package nl.utwente.ing.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Single writer for the SQLite database.
+ *
+ * All mutations are queued and executed by one thread on a dedicated connection. The
+ * writer drains whatever is queued and commits it as one database transaction (group commit),
+ * so concurrent requests share a single fsync. Every queued write runs in its own savepoint,
+ * which means a failing write does not affect the other writes in the same group.
+ * A write lock given to the writer is held from the first write of a group until the group has
+ * been committed or rolled back, for readers that must not read while the database is written.
+ */
+public class DatabaseWriter {
+	private static final int MAX_GROUP_SIZE = 64;
+
+	/**
+	 * A unit of work that is executed on the writer connection.
+	 */
+	public interface WriteTask<T> {
+		T execute(Connection conn) throws SQLException;
+	}
+
+	private final Connection connection;
+	private final BlockingQueue<PendingWrite<?>> queue = new LinkedBlockingQueue<>();
+	private final Thread thread;
+	// Held while a group is written, null if readers do not have to wait for the writer
+	private final Lock writeLock;
+	private volatile boolean running = true;
+	// The write being executed, only used by the writer thread
+	private PendingWrite<?> current;
+
+	// Metrics
+	private final AtomicLong committedGroups = new AtomicLong();
+	private final AtomicLong committedWrites = new AtomicLong();
+
+	public DatabaseWriter(String url, boolean wal) throws SQLException {
+		this(url, wal, null);
+	}
+
+	/**
+	 * @param writeLock
+	 * 		Lock that is held while a group of writes is executed and committed, or null
+	 */
+	public DatabaseWriter(String url, boolean wal, Lock writeLock) throws SQLException {
+		this.writeLock = writeLock;
+		connection = ConnectionPool.open(url);
+		if (wal) {
+			try (Statement stmt = connection.createStatement()) {
+				stmt.execute("PRAGMA journal_mode = WAL");
+			}
+		}
+		connection.setAutoCommit(false);
+
+		thread = new Thread(this::run, "sqlite-writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Queues the task and waits until the group it was executed in has been committed.
+	 * Tasks submitted from the writer thread itself are executed directly.
+	 * @param task
+	 * 		The task to execute
+	 * @return
+	 * 		The value returned by the task
+	 * @throws SQLException
+	 * 		if the task or the commit failed
+	 */
+	public <T> T submit(WriteTask<T> task) throws SQLException {
+		if (isWriterThread()) {
+			return task.execute(connection);
+		}
+		if (!running) {
+			throw new SQLException("Database writer is closed");
+		}
+
+		PendingWrite<T> write = new PendingWrite<>(task);
+		queue.add(write);
+		// The writer may have been closed and stopped after the check above. Unless the writer
+		// has already taken the task, it will never run, so take it back.
+		if (!running && queue.remove(write)) {
+			throw new SQLException("Database writer is closed");
+		}
+		return write.await();
+	}
+
+	/**
+	 * Runs the action once the write task that is being executed has been committed. The action is
+	 * dropped if the task is rolled back. Called outside a write task, the action is run immediately.
+	 * @param action
+	 * 		The action to run after the commit, should be short and must not write
+	 */
+	public void afterCommit(Runnable action) {
+		if (isWriterThread() && current != null) {
+			current.afterCommit.add(action);
+		} else {
+			action.run();
+		}
+	}
+
+	/**
+	 * Runs the action if the write task that is being executed is rolled back, to undo changes the task
+	 * made outside the database. Actions run in the reverse order in which they were registered.
+	 * Called outside a write task, the action is dropped as there is nothing that can be rolled back.
+	 * @param action
+	 * 		The action to run after a rollback, should be short and must not write
+	 */
+	public void onRollback(Runnable action) {
+		if (isWriterThread() && current != null) {
+			current.onRollback.add(action);
+		}
+	}
+
+	/**
+	 * @return whether the calling thread is the writer thread, i.e. whether it is running a write task
+	 */
+	public boolean isWriterThread() {
+		return Thread.currentThread() == thread;
+	}
+
+	/**
+	 * Hands out the writer connection to code that runs inside a write task, so its reads see the
+	 * uncommitted changes of the current transaction. Closing it does not close the writer connection.
+	 */
+	Connection borrowConnection() {
+		if (!isWriterThread()) {
+			throw new IllegalStateException("The writer connection can only be used by the writer thread");
+		}
+		return ConnectionHandle.wrap(connection, physical -> { });
+	}
+
+	/**
+	 * Stops accepting writes, finishes the queued ones and closes the writer connection.
+	 */
+	public void close() {
+		running = false;
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			System.out.println(e.getMessage());
+		}
+	}
+
+	private void run() {
+		List<PendingWrite<?>> group = new ArrayList<>();
+		while (running || !queue.isEmpty()) {
+			PendingWrite<?> first;
+			try {
+				first = queue.poll(1, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				continue;
+			}
+			if (first == null) {
+				continue;
+			}
+
+			group.clear();
+			group.add(first);
+			queue.drainTo(group, MAX_GROUP_SIZE - 1);
+
+			if (writeLock != null) {
+				writeLock.lock();
+			}
+			try {
+				write(group);
+			} finally {
+				if (writeLock != null) {
+					writeLock.unlock();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Executes the writes of the group and commits them together.
+	 */
+	private void write(List<PendingWrite<?>> group) {
+		for (PendingWrite<?> write : group) {
+			current = write;
+			write.execute();
+		}
+		current = null;
+
+		try {
+			connection.commit();
+			committedGroups.incrementAndGet();
+			committedWrites.addAndGet(group.size());
+			for (PendingWrite<?> write : group) {
+				write.complete();
+			}
+		} catch (SQLException e) {
+			rollback();
+			for (int i = group.size() - 1; i >= 0; i--) {
+				group.get(i).rolledBack();
+			}
+			for (PendingWrite<?> write : group) {
+				write.fail(e);
+			}
+		}
+	}
+
+	private void rollback() {
+		try {
+			connection.rollback();
+		} catch (SQLException e) {
+			System.out.println(e.getMessage());
+		}
+	}
+
+	/*
+	 * -------------------- Metrics --------------------
+	 */
+
+	public int getQueueLength() {
+		return queue.size();
+	}
+
+	public long getCommittedGroups() {
+		return committedGroups.get();
+	}
+
+	public long getCommittedWrites() {
+		return committedWrites.get();
+	}
+
+	/**
+	 * A queued task together with its outcome.
+	 */
+	private class PendingWrite<T> {
+		private final WriteTask<T> task;
+		private final CompletableFuture<T> future = new CompletableFuture<>();
+		private final List<Runnable> afterCommit = new ArrayList<>();
+		private final List<Runnable> onRollback = new ArrayList<>();
+		private T result;
+		private Throwable error;
+
+		PendingWrite(WriteTask<T> task) {
+			this.task = task;
+		}
+
+		void execute() {
+			Savepoint savepoint = null;
+			try {
+				savepoint = connection.setSavepoint();
+				result = task.execute(connection);
+				connection.releaseSavepoint(savepoint);
+			} catch (Throwable e) {
+				error = e;
+				if (savepoint != null) {
+					try {
+						connection.rollback(savepoint);
+						connection.releaseSavepoint(savepoint);
+					} catch (SQLException rollbackError) {
+						System.out.println(rollbackError.getMessage());
+					}
+				}
+				rolledBack();
+			}
+		}
+
+		/**
+		 * Undoes the changes the task made outside the database and drops its actions after the commit.
+		 */
+		void rolledBack() {
+			afterCommit.clear();
+			for (int i = onRollback.size() - 1; i >= 0; i--) {
+				try {
+					onRollback.get(i).run();
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+			onRollback.clear();
+		}
+
+		void complete() {
+			if (error != null) {
+				future.completeExceptionally(error);
+			} else {
+				for (Runnable action : afterCommit) {
+					try {
+						action.run();
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+					}
+				}
+				future.complete(result);
+			}
+		}
+
+		void fail(Throwable e) {
+			future.completeExceptionally(error != null ? error : e);
+		}
+
+		T await() throws SQLException {
+			try {
+				return future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted while waiting for the database writer", e);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof SQLException) {
+					throw (SQLException) cause;
+				} else if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				} else if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw new SQLException(cause);
+			}
+		}
+	}
+}
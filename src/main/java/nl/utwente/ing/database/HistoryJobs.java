@@ -0,0 +1,111 @@
+package nl.utwente.ing.database;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+import nl.utwente.ing.model.HistoryJob;
+import nl.utwente.ing.model.JobStatus;
+
+/**
+ * Runs the jobs that apply category rules to earlier transactions, one at a time on a background thread,
+ * and keeps their progress so it can be requested per category rule. A job that has finished is kept
+ * for the retention period, after which its progress can no longer be requested.
+ */
+public class HistoryJobs {
+	private final Map<Integer, HistoryJob> jobs = new ConcurrentHashMap<>();
+	private final long retentionMillis;
+	private ExecutorService executor;
+
+	/**
+	 * @param retentionMillis
+	 * 		How long a finished job is kept, in milliseconds
+	 */
+	public HistoryJobs(long retentionMillis) {
+		this.retentionMillis = retentionMillis;
+	}
+
+	/**
+	 * Queues the job.
+	 * @param work
+	 * 		Does the work of the job and reports its progress in it
+	 */
+	public synchronized void submit(HistoryJob job, Consumer<HistoryJob> work) {
+		evictFinished();
+		jobs.put(job.getCategoryRuleId(), job);
+		if (executor == null) {
+			executor = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "history-jobs");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		try {
+			executor.execute(() -> run(job, work));
+		} catch (RejectedExecutionException e) {
+			job.setStatus(JobStatus.failed);
+		}
+	}
+
+	/**
+	 * @return the job of the category rule, or null if no job has been started for it since startup
+	 * 		or its job finished longer than the retention period ago
+	 */
+	public HistoryJob get(int categoryRuleId) {
+		HistoryJob job = jobs.get(categoryRuleId);
+		if (job != null && expired(job, System.currentTimeMillis())) {
+			jobs.remove(categoryRuleId, job);
+			return null;
+		}
+		return job;
+	}
+
+	/**
+	 * @return the number of jobs that are kept
+	 */
+	public int size() {
+		return jobs.size();
+	}
+
+	/**
+	 * Removes the jobs that finished longer than the retention period ago.
+	 */
+	private void evictFinished() {
+		long now = System.currentTimeMillis();
+		Iterator<HistoryJob> iterator = jobs.values().iterator();
+		while (iterator.hasNext()) {
+			if (expired(iterator.next(), now)) {
+				iterator.remove();
+			}
+		}
+	}
+
+	private boolean expired(HistoryJob job, long now) {
+		long finished = job.returnFinished();
+		return finished != 0 && now - finished > retentionMillis;
+	}
+
+	/**
+	 * Stops the running job and drops the queued ones.
+	 */
+	public synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	private static void run(HistoryJob job, Consumer<HistoryJob> work) {
+		job.setStatus(JobStatus.running);
+		try {
+			work.accept(job);
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			job.setStatus(JobStatus.failed);
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package nl.utwente.ing.database;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out new ids for the tables in the database.
+ *
+ * Every table has an in-memory sequence that is seeded once from the largest id in the table,
+ * after which new ids are allocated without touching the database. Allocation is atomic, so
+ * concurrent requests never receive the same id.
+ */
+public class IdAllocator {
+	private final ConcurrentHashMap<String, AtomicInteger> sequences = new ConcurrentHashMap<>();
+	
+	/**
+	 * @param table
+	 * 		Name of the table to allocate an id for
+	 * @return
+	 * 		An id that has not been handed out before for the given table
+	 */
+	public int next(String table) {
+		return next(table, "id", 0);
+	}
+	
+	/**
+	 * @param table
+	 * 		Name of the table to allocate an id for
+	 * @param column
+	 * 		Name of the id column of the table
+	 * @param first
+	 * 		Id handed out when the table is empty
+	 * @return
+	 * 		An id that has not been handed out before for the given table
+	 */
+	public int next(String table, String column, int first) {
+		return sequences.computeIfAbsent(table, t -> seed(t, column, first)).incrementAndGet();
+	}
+	
+	/**
+	 * Forgets all sequences, so they are seeded from the database again on next use.
+	 */
+	public void reset() {
+		sequences.clear();
+	}
+	
+	/**
+	 * Queries the database for the largest id of the given table.
+	 * @return
+	 * 		sequence starting at the largest id or just before the first id if there are no entries
+	 */
+	private static AtomicInteger seed(String table, String column, int first) {
+		String sql = "SELECT max(" + column + ") AS id FROM " + table;
+		try (Connection conn = DatabaseCommunication.connect();
+				Statement stmt = conn.createStatement();
+				ResultSet rs = stmt.executeQuery(sql)) {
+			if (rs.next()) {
+				int max = rs.getInt("id");
+				return new AtomicInteger(rs.wasNull() ? first - 1 : max);
+			}
+		} catch (SQLException e) {
+			throw new IllegalStateException("Could not seed the id sequence of " + table, e);
+		}
+		return new AtomicInteger(first - 1);
+	}
+}
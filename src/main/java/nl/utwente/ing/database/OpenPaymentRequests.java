@@ -0,0 +1,169 @@
+package nl.utwente.ing.database;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * In-memory index of the payment requests that are not filled yet, per session.
+ *
+ * The requests are kept per amount, ordered by due date, so a deposit finds the request it pays with
+ * a single lookup. The requests whose expiry has not been warned about yet are also kept in one queue
+ * ordered by due date, so the requests that expire are taken from its head.
+ *
+ * The index is only used by the database writer, inside the unit of work that changes the requests,
+ * and is loaded per session on first use. When the unit of work is rolled back, the index of the
+ * session is dropped and loaded again.
+ */
+public class OpenPaymentRequests {
+	private static final Comparator<OpenRequest> BY_DUE_DATE =
+			Comparator.<OpenRequest>comparingLong(r -> r.dueDate).thenComparingInt(r -> r.id);
+
+	private final Map<Integer, Session> sessions = new HashMap<>();
+
+	/**
+	 * The open requests of one session.
+	 */
+	private static class Session {
+		// The open requests by amount in cents
+		private final Map<Long, TreeSet<OpenRequest>> byAmount = new HashMap<>();
+		// The open requests whose expiry has not been warned about
+		private final TreeSet<OpenRequest> deadlines = new TreeSet<>(BY_DUE_DATE);
+
+		void add(OpenRequest request) {
+			byAmount.computeIfAbsent(request.amount, a -> new TreeSet<>(BY_DUE_DATE)).add(request);
+			if (!request.expiryNotified) {
+				deadlines.add(request);
+			}
+		}
+	}
+
+	/**
+	 * A payment request that is not filled yet.
+	 */
+	public static class OpenRequest {
+		private final int id;
+		private final long amount;
+		private final long dueDate;
+		private final int numberOfRequests;
+		private int paidCount;
+		private boolean expiryNotified;
+
+		public OpenRequest(int id, long amountCents, long dueDate, int numberOfRequests, int paidCount,
+				boolean expiryNotified) {
+			this.id = id;
+			this.amount = amountCents;
+			this.dueDate = dueDate;
+			this.numberOfRequests = numberOfRequests;
+			this.paidCount = paidCount;
+			this.expiryNotified = expiryNotified;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		/**
+		 * @return whether the next payment fills the request
+		 */
+		public boolean isLastPayment() {
+			return paidCount + 1 == numberOfRequests;
+		}
+	}
+
+	/**
+	 * Finds the open request a deposit pays: the one with the same amount and the earliest due date
+	 * that is not before the deposit.
+	 * @return
+	 * 		The request, or null if there is none
+	 */
+	public OpenRequest find(int sessionId, long amountCents, long unixTimestamp) {
+		TreeSet<OpenRequest> requests = load(sessionId).byAmount.get(amountCents);
+		if (requests == null) {
+			return null;
+		}
+		return requests.ceiling(new OpenRequest(Integer.MIN_VALUE, amountCents, unixTimestamp, 0, 0, false));
+	}
+
+	/**
+	 * Adds a new payment request of the session.
+	 */
+	public void add(int sessionId, OpenRequest request) {
+		load(sessionId).add(request);
+	}
+
+	/**
+	 * Records a payment of the request, removing it from the index when it is filled.
+	 */
+	public void pay(int sessionId, OpenRequest request) {
+		request.paidCount++;
+		if (request.paidCount >= request.numberOfRequests) {
+			remove(sessionId, request);
+		}
+	}
+
+	/**
+	 * Takes the requests that are due before the given date and have not been warned about yet.
+	 * They are marked as warned about, so every request is only returned once.
+	 * @param unixTimestamp
+	 * 		The current date, either of the latest transaction or of the clock
+	 * @return
+	 * 		The expired requests, ordered by due date
+	 */
+	public List<OpenRequest> expire(int sessionId, long unixTimestamp) {
+		TreeSet<OpenRequest> deadlines = load(sessionId).deadlines;
+		List<OpenRequest> expired = new ArrayList<>();
+		while (!deadlines.isEmpty() && deadlines.first().dueDate < unixTimestamp) {
+			OpenRequest request = deadlines.pollFirst();
+			request.expiryNotified = true;
+			expired.add(request);
+		}
+		return expired;
+	}
+
+	/**
+	 * Removes the request from the index.
+	 */
+	public void remove(int sessionId, OpenRequest request) {
+		Session session = sessions.get(sessionId);
+		if (session == null) {
+			return;
+		}
+		TreeSet<OpenRequest> requests = session.byAmount.get(request.amount);
+		if (requests != null) {
+			requests.remove(request);
+			if (requests.isEmpty()) {
+				session.byAmount.remove(request.amount);
+			}
+		}
+		session.deadlines.remove(request);
+	}
+
+	/**
+	 * Drops the index of the session, so it is loaded again on next use.
+	 * Used to undo changes to the index when the unit of work that made them is rolled back.
+	 */
+	public void forget(int sessionId) {
+		sessions.remove(sessionId);
+	}
+
+	private Session load(int sessionId) {
+		Session session = sessions.get(sessionId);
+		if (session == null) {
+			session = new Session();
+			String sql = "SELECT id, amount, due_date, number_of_requests, paid_count, expiry_notified FROM paymentRequests "
+					+ "WHERE session = ? AND filled = 0";
+			List<OpenRequest> requests = QueryTemplate.query(sql, rs -> new OpenRequest(rs.getInt("id"),
+					rs.getLong("amount"), rs.getLong("due_date"), rs.getInt("number_of_requests"), rs.getInt("paid_count"),
+					rs.getBoolean("expiry_notified")), sessionId);
+			for (OpenRequest request : requests) {
+				session.add(request);
+			}
+			sessions.put(sessionId, session);
+		}
+		return session;
+	}
+}
@@ -0,0 +1,28 @@
+package nl.utwente.ing.database;
+
+import java.time.Instant;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Periodically adds the warnings of the payment requests whose due date has passed on the clock,
+ * for sessions that do not add any transactions after the due date.
+ *
+ * Only enabled with payment-requests.wall-clock-expiry=true, because clients may add transactions
+ * with dates in the past, which would then be warned about before the transactions that fill them.
+ */
+@Component
+@ConditionalOnProperty(name = "payment-requests.wall-clock-expiry", havingValue = "true")
+public class PaymentRequestDeadlineChecker {
+	
+	@Scheduled(initialDelayString = "${payment-requests.expiry-check.initial-delay:60000}",
+			fixedDelayString = "${payment-requests.expiry-check.interval:60000}")
+	public void check() {
+		int sessions = DatabaseCommunication.expirePaymentRequests(Instant.now().getEpochSecond());
+		if (sessions > 0) {
+			System.out.println("Added payment request warnings to " + sessions + " sessions");
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package nl.utwente.ing.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs sql against the database and takes care of the lifetime of the connections,
+ * statements and result sets involved, so none of them outlive the call.
+ *
+ * Queries read through a pooled connection, or through the connection of the running unit of work.
+ * Updates are executed by the database writer. Failures are logged and rethrown as a DatabaseException,
+ * so they cannot be mistaken for an empty result and a unit of work they happen in is rolled back.
+ */
+public class QueryTemplate {
+	private static final Logger log = LoggerFactory.getLogger(QueryTemplate.class);
+
+	private QueryTemplate() {
+	}
+
+	/**
+	 * Executes the query and maps every row of the result.
+	 * @param sql
+	 * 			The sql query with ? placeholders
+	 * @param mapper
+	 * 			Maps a row to an object
+	 * @param params
+	 * 			Values for the placeholders
+	 * @return
+	 * 			List with an object for every row
+	 * @throws DatabaseException
+	 * 			if the query failed
+	 */
+	public static <T> List<T> query(String sql, RowMapper<T> mapper, Object... params) {
+		List<T> result = new ArrayList<>();
+		try (Connection conn = DatabaseCommunication.getConnection();
+				PreparedStatement stmt = prepare(conn, sql, params);
+				ResultSet rs = stmt.executeQuery()) {
+			while (rs.next()) {
+				result.add(mapper.mapRow(rs));
+			}
+		} catch (SQLException e) {
+			throw failed(sql, e);
+		}
+		return result;
+	}
+
+	/**
+	 * Executes the query and hands every row of the result to the handler while reading it,
+	 * without collecting the rows.
+	 * @param handler
+	 * 			Processes a row
+	 */
+	public static void forEach(String sql, RowHandler handler, Object... params) {
+		try (Connection conn = DatabaseCommunication.getConnection();
+				PreparedStatement stmt = prepare(conn, sql, params);
+				ResultSet rs = stmt.executeQuery()) {
+			while (rs.next()) {
+				handler.processRow(rs);
+			}
+		} catch (SQLException e) {
+			throw failed(sql, e);
+		}
+	}
+
+	/**
+	 * Executes the query and maps the first row of the result.
+	 * @return
+	 * 			The mapped first row, or null if there are no rows
+	 * @throws DatabaseException
+	 * 			if the query failed
+	 */
+	public static <T> T queryForObject(String sql, RowMapper<T> mapper, Object... params) {
+		try (Connection conn = DatabaseCommunication.getConnection();
+				PreparedStatement stmt = prepare(conn, sql, params);
+				ResultSet rs = stmt.executeQuery()) {
+			if (rs.next()) {
+				return mapper.mapRow(rs);
+			}
+		} catch (SQLException e) {
+			throw failed(sql, e);
+		}
+		return null;
+	}
+
+	/**
+	 * @return whether the query returns at least one row
+	 */
+	public static boolean exists(String sql, Object... params) {
+		return queryForObject(sql, rs -> Boolean.TRUE, params) != null;
+	}
+
+	/**
+	 * Queues the update on the database writer and waits until it has been committed.
+	 * @return
+	 * 			The number of changed rows
+	 * @throws DatabaseException
+	 * 			if the update failed
+	 */
+	public static int update(String sql, Object... params) {
+		try {
+			return DatabaseCommunication.getWriter().submit(conn -> {
+				try (PreparedStatement stmt = prepare(conn, sql, params)) {
+					return stmt.executeUpdate();
+				}
+			});
+		} catch (SQLException e) {
+			throw failed(sql, e);
+		}
+	}
+
+	/**
+	 * Executes the update once for every set of parameters, as one batch on a single statement.
+	 * @param batchParams
+	 * 			The values for the placeholders, one array per execution
+	 * @return
+	 * 			The number of changed rows per execution
+	 * @throws DatabaseException
+	 * 			if the batch failed
+	 */
+	public static int[] batchUpdate(String sql, List<Object[]> batchParams) {
+		if (batchParams.isEmpty()) {
+			return new int[0];
+		}
+		try {
+			return DatabaseCommunication.getWriter().submit(conn -> {
+				try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+					for (Object[] params : batchParams) {
+						fillStatementWithParams(stmt, params);
+						stmt.addBatch();
+					}
+					return stmt.executeBatch();
+				}
+			});
+		} catch (SQLException e) {
+			throw failed(sql, e);
+		}
+	}
+
+	private static PreparedStatement prepare(Connection conn, String sql, Object[] params) throws SQLException {
+		PreparedStatement stmt = conn.prepareStatement(sql);
+		try {
+			fillStatementWithParams(stmt, params);
+		} catch (SQLException e) {
+			stmt.close();
+			throw e;
+		}
+		return stmt;
+	}
+
+	private static void fillStatementWithParams(PreparedStatement stmt, Object[] params) throws SQLException {
+		for (int i = 0; i < params.length; i++) {
+			stmt.setObject(i + 1, params[i]);
+		}
+	}
+
+	private static DatabaseException failed(String sql, SQLException e) {
+		log.warn("Failed to execute {}: {}", sql, e.getMessage());
+		return new DatabaseException(e);
+	}
+}
@@ -0,0 +1,117 @@
+package nl.utwente.ing.database;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.utwente.ing.model.TimeInterval;
+
+/**
+ * Builds the rows of the balanceRollups table of a session in a single pass over its transactions.
+ *
+ * The table holds a candlestick for every interval of every granularity in which the session has
+ * transactions. The transactions have to be added in order of date, and the balance is carried from
+ * one transaction to the next, so only the balance before the first transaction has to be known.
+ * All amounts are in cents.
+ */
+public class RollupBuilder {
+	public static final String INSERT_SQL = "INSERT OR REPLACE INTO balanceRollups"
+			+ "(session, granularity, bucket_start, open, close, high, low, volume) VALUES(?,?,?,?,?,?,?,?)";
+
+	private static final TimeInterval[] GRANULARITIES = TimeInterval.values();
+
+	private final int sessionId;
+	private final long[] from;
+	// The bucket being built for every granularity: start, open, close, high, low and volume
+	private final long[][] buckets = new long[GRANULARITIES.length][];
+	private final List<Object[]> rows = new ArrayList<>();
+	private long balance;
+
+	/**
+	 * Builds all buckets of the session.
+	 */
+	public RollupBuilder(int sessionId) {
+		this(sessionId, 0, Long.MIN_VALUE);
+	}
+
+	/**
+	 * Builds the buckets from the one containing the given date onwards, for every granularity.
+	 * @param openingBalance
+	 * 		Balance in cents before the first transaction that will be added
+	 * @param fromTimestamp
+	 * 		Date in the first bucket to build
+	 */
+	public RollupBuilder(int sessionId, long openingBalance, long fromTimestamp) {
+		this.sessionId = sessionId;
+		this.balance = openingBalance;
+		this.from = new long[GRANULARITIES.length];
+		for (int i = 0; i < GRANULARITIES.length; i++) {
+			from[i] = fromTimestamp == Long.MIN_VALUE ? Long.MIN_VALUE : GRANULARITIES[i].truncate(fromTimestamp);
+		}
+	}
+
+	/**
+	 * @return the start of the earliest bucket of any granularity that contains the date
+	 */
+	public static long firstBucketStart(long unixTimestamp) {
+		long min = unixTimestamp;
+		for (TimeInterval granularity : GRANULARITIES) {
+			min = Math.min(min, granularity.truncate(unixTimestamp));
+		}
+		return min;
+	}
+
+	/**
+	 * @return the start of the first bucket that is built for the granularity
+	 */
+	public long getFrom(TimeInterval granularity) {
+		return from[granularity.ordinal()];
+	}
+
+	/**
+	 * Adds the next transaction to its bucket of every granularity.
+	 * @param signedAmount
+	 * 		Amount in cents, negative for withdrawals
+	 * @param unixTimestamp
+	 * 		Date of the transaction, not before the date of the previously added transaction
+	 */
+	public void add(long signedAmount, long unixTimestamp) {
+		long before = balance;
+		balance += signedAmount;
+		for (int i = 0; i < GRANULARITIES.length; i++) {
+			if (unixTimestamp < from[i]) {
+				continue;
+			}
+			long start = GRANULARITIES[i].truncate(unixTimestamp);
+			long[] bucket = buckets[i];
+			if (bucket == null || bucket[0] != start) {
+				flush(i);
+				bucket = new long[] { start, before, before, before, before, 0 };
+				buckets[i] = bucket;
+			}
+			bucket[2] = balance;
+			bucket[3] = Math.max(bucket[3], balance);
+			bucket[4] = Math.min(bucket[4], balance);
+			bucket[5] += Math.abs(signedAmount);
+		}
+	}
+
+	/**
+	 * @return
+	 * 		The parameters of INSERT_SQL for every bucket that has been built
+	 */
+	public List<Object[]> finish() {
+		for (int i = 0; i < GRANULARITIES.length; i++) {
+			flush(i);
+		}
+		return rows;
+	}
+
+	private void flush(int i) {
+		long[] bucket = buckets[i];
+		if (bucket != null) {
+			rows.add(new Object[] { sessionId, GRANULARITIES[i].name(),
+					bucket[0], bucket[1], bucket[2], bucket[3], bucket[4], bucket[5] });
+			buckets[i] = null;
+		}
+	}
+}
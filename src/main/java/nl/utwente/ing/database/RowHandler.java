@@ -0,0 +1,13 @@
+package nl.utwente.ing.database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Processes the current row of a result set, for queries whose rows are consumed while streaming
+ * instead of being collected into a list.
+ * Implementations should only read the current row and must not move the cursor.
+ */
+public interface RowHandler {
+	void processRow(ResultSet rs) throws SQLException;
+}
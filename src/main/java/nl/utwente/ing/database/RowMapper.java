@@ -0,0 +1,12 @@
+package nl.utwente.ing.database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the current row of a result set to an object.
+ * Implementations should only read the current row and must not move the cursor.
+ */
+public interface RowMapper<T> {
+	T mapRow(ResultSet rs) throws SQLException;
+}
@@ -0,0 +1,112 @@
+package nl.utwente.ing.database;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import nl.utwente.ing.model.SavingGoal;
+
+/**
+ * Computes the money put aside for the saving goals of a session at the beginnings of the months
+ * that passed since its last transaction.
+ *
+ * At the beginning of every month each saving goal that is not met yet gets its monthly amount,
+ * as long as the balance of the account allows it. The processor only computes the internal
+ * transactions and the new balances of the goals, so they can be written in batches.
+ * All amounts are in cents.
+ */
+public class SavingGoalProcessor {
+	private final List<SavingGoal> savingGoals;
+	private final List<long[]> allocations = new ArrayList<>();
+	private final Set<SavingGoal> changed = new LinkedHashSet<>();
+	private final List<SavingGoal> filled = new ArrayList<>();
+	private long accountBalance;
+
+	/**
+	 * @param savingGoals
+	 * 		The saving goals of the session, whose balances are updated while processing
+	 * @param accountBalance
+	 * 		Balance of the account before the first month is processed
+	 */
+	public SavingGoalProcessor(List<SavingGoal> savingGoals, long accountBalance) {
+		this.savingGoals = savingGoals;
+		this.accountBalance = accountBalance;
+	}
+
+	/**
+	 * Gets the beginnings of the months that passed between two dates, in the order they are processed:
+	 * the latest month first.
+	 * @param lastTimestamp
+	 * 		Date of the last transaction of the session
+	 * @param unixTimestamp
+	 * 		Date of the new transaction, or the current date
+	 * @return
+	 * 		The beginnings of the months as unix timestamps, empty if the date is not in a later month
+	 */
+	public static List<Long> monthStarts(long lastTimestamp, long unixTimestamp) {
+		ZonedDateTime last = ZonedDateTime.ofInstant(Instant.ofEpochSecond(lastTimestamp), ZoneOffset.UTC);
+		ZonedDateTime current = ZonedDateTime.ofInstant(Instant.ofEpochSecond(unixTimestamp), ZoneOffset.UTC);
+
+		// The number of "month crossings" between the two dates
+		int diff = Math.max((current.getYear() - last.getYear()) * 12 +
+				(current.getMonthValue() - last.getMonthValue()), 0);
+
+		ZonedDateTime lastMonthBeginning = current.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1);
+		List<Long> result = new ArrayList<>(diff);
+		for (int i = 0; i < diff; i++) {
+			result.add(lastMonthBeginning.minus(i, ChronoUnit.MONTHS).toEpochSecond());
+		}
+		return result;
+	}
+
+	/**
+	 * Puts money aside for every saving goal at the beginning of a month.
+	 * @param monthStart
+	 * 		Date of the beginning of the month, used as the date of the internal transactions
+	 */
+	public void process(long monthStart) {
+		for (SavingGoal sg : savingGoals) {
+			long sgBalance = sg.returnBalanceCents();
+			// Get the amount that needs to be added to the goal for the month
+			long perMonth = Math.min(sg.returnSavePerMonthCents(), sg.returnGoalCents() - sgBalance);
+
+			// There should be enough money on the account for putting aside and the goal must be still unmet
+			if (accountBalance >= sg.returnMinBalanceRequiredCents() && accountBalance >= perMonth
+					&& sgBalance <= sg.returnGoalCents() && perMonth > 0) {
+				allocations.add(new long[] { sg.getId(), perMonth, monthStart });
+				if (sgBalance + perMonth == sg.returnGoalCents()) {
+					filled.add(sg);
+				}
+				sg.addToBalance(perMonth);
+				changed.add(sg);
+				accountBalance -= perMonth;
+			}
+		}
+	}
+
+	/**
+	 * @return the money put aside, as saving goal id, amount and date, in the order it was put aside
+	 */
+	public List<long[]> getAllocations() {
+		return allocations;
+	}
+
+	/**
+	 * @return the saving goals whose balance changed
+	 */
+	public List<SavingGoal> getChangedGoals() {
+		return new ArrayList<>(changed);
+	}
+
+	/**
+	 * @return the saving goals that have been met, in the order they were met
+	 */
+	public List<SavingGoal> getFilledGoals() {
+		return filled;
+	}
+}
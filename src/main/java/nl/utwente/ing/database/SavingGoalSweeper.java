@@ -0,0 +1,27 @@
+package nl.utwente.ing.database;
+
+import java.time.Instant;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Puts money aside for the saving goals of all sessions at the beginning of every month, so sessions
+ * without new transactions do not have to wait for their next transaction.
+ *
+ * Only enabled with saving-goals.month-sweep=true, because clients may add transactions with dates
+ * in the past, which would then be added before money that has already been put aside.
+ */
+@Component
+@ConditionalOnProperty(name = "saving-goals.month-sweep", havingValue = "true")
+public class SavingGoalSweeper {
+	
+	@Scheduled(cron = "${saving-goals.month-sweep.cron:0 5 0 1 * *}", zone = "UTC")
+	public void sweep() {
+		int sessions = DatabaseCommunication.applySavingGoals(Instant.now().getEpochSecond());
+		if (sessions > 0) {
+			System.out.println("Put money aside for the saving goals of " + sessions + " sessions");
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package nl.utwente.ing.database;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory set of the existing session ids, so sessions can be validated without touching the database.
+ *
+ * The set is loaded once from the sessions table and a session is added to it in place whenever it is
+ * added to the database. It is a concurrent set, so lookups never lock and adding a session does not
+ * depend on the number of sessions.
+ */
+public class SessionRegistry {
+	private volatile Set<Integer> sessions;
+
+	/**
+	 * @param sessionId
+	 * 		Id of the session to look up
+	 * @return
+	 * 		whether a session with the given id exists
+	 */
+	public boolean contains(int sessionId) {
+		return load().contains(sessionId);
+	}
+
+	/**
+	 * Registers a session that has been added to the database.
+	 */
+	public synchronized void add(int sessionId) {
+		load().add(sessionId);
+	}
+
+	/**
+	 * Loads the sessions from the database, replacing the ones known so far.
+	 */
+	public synchronized void reload() {
+		sessions = query();
+	}
+
+	private Set<Integer> load() {
+		Set<Integer> current = sessions;
+		if (current == null) {
+			synchronized (this) {
+				if (sessions == null) {
+					sessions = query();
+				}
+				current = sessions;
+			}
+		}
+		return current;
+	}
+
+	private static Set<Integer> query() {
+		List<Integer> ids = QueryTemplate.query("SELECT session FROM sessions", rs -> rs.getInt("session"));
+		Set<Integer> result = ConcurrentHashMap.newKeySet();
+		result.addAll(ids);
+		return result;
+	}
+}
@@ -0,0 +1,21 @@
+package nl.utwente.ing.database;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Periodically checks the running totals of the sessions against their transactions and
+ * repairs any drift. The first check runs right after startup.
+ */
+@Component
+public class SessionStatsChecker {
+	
+	@Scheduled(initialDelayString = "${database.stats-check.initial-delay:0}",
+			fixedDelayString = "${database.stats-check.interval:3600000}")
+	public void check() {
+		int repaired = DatabaseCommunication.repairSessionStats();
+		if (repaired > 0) {
+			System.out.println("Repaired the statistics of " + repaired + " sessions");
+		}
+	}
+}
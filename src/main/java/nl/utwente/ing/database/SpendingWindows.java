@@ -0,0 +1,116 @@
+package nl.utwente.ing.database;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory sums of the withdrawals per category over a sliding window that ends at the latest
+ * transaction of the session, so message rules can be checked without querying the transactions.
+ *
+ * The window of a session only moves forward, together with its latest transaction. Withdrawals in
+ * the window are kept per category by date, and drop out of the sum when the window moves past them.
+ * The windows are only used by the database writer and loaded per session on first use. Changes to
+ * existing transactions or categories make the windows of the session be loaded again.
+ */
+public class SpendingWindows {
+	private final long length;
+	private final ConcurrentMap<Integer, Session> sessions = new ConcurrentHashMap<>();
+
+	/**
+	 * The windows of one session.
+	 */
+	private static class Session {
+		// Start of the window, withdrawals before it are not kept
+		private long start;
+		private final Map<Integer, Window> categories = new HashMap<>();
+	}
+
+	/**
+	 * The withdrawals of one category in the window, summed per date.
+	 */
+	private static class Window {
+		private final TreeMap<Long, Long> amounts = new TreeMap<>();
+		private long total;
+
+		void add(long unixTimestamp, long amountCents) {
+			amounts.merge(unixTimestamp, amountCents, Long::sum);
+			total += amountCents;
+		}
+
+		void evictBefore(long start) {
+			Iterator<Map.Entry<Long, Long>> it = amounts.headMap(start).entrySet().iterator();
+			while (it.hasNext()) {
+				total -= it.next().getValue();
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * @param length
+	 * 		Length of the window in seconds
+	 */
+	public SpendingWindows(long length) {
+		this.length = length;
+	}
+
+	/**
+	 * Adds a newly inserted withdrawal. Withdrawals of sessions that are not loaded, or from before the
+	 * window, are left out as they will be read when loading or can not be part of the sum anymore.
+	 */
+	public void add(int sessionId, int categoryId, long unixTimestamp, long amountCents) {
+		Session session = sessions.get(sessionId);
+		if (session != null && unixTimestamp >= session.start) {
+			session.categories.computeIfAbsent(categoryId, c -> new Window()).add(unixTimestamp, amountCents);
+		}
+	}
+
+	/**
+	 * Moves the window of the session forward to end at the given date and returns the spending in it.
+	 * @param latestTransactionTime
+	 * 		Date of the latest transaction of the session
+	 * @return
+	 * 		The amount in cents withdrawn for the category from the length of the window before the date up to the date
+	 */
+	public long getSpending(int sessionId, int categoryId, long latestTransactionTime) {
+		long start = latestTransactionTime - length;
+		Session session = sessions.get(sessionId);
+		if (session == null) {
+			session = load(sessionId, start, latestTransactionTime);
+			sessions.put(sessionId, session);
+		} else if (start > session.start) {
+			session.start = start;
+			for (Window window : session.categories.values()) {
+				window.evictBefore(start);
+			}
+			session.categories.values().removeIf(window -> window.amounts.isEmpty());
+		}
+		Window window = session.categories.get(categoryId);
+		return window == null ? 0 : window.total;
+	}
+
+	/**
+	 * Drops the windows of the session, so they are loaded again on next use.
+	 */
+	public void forget(int sessionId) {
+		sessions.remove(sessionId);
+	}
+
+	private static Session load(int sessionId, long start, long end) {
+		Session session = new Session();
+		session.start = start;
+		String sql = "SELECT categoryID, date, amount FROM transactions WHERE session = ? AND type = 'withdrawal' "
+				+ "AND categoryID IS NOT NULL AND date >= ? AND date <= ?";
+		List<long[]> rows = QueryTemplate.query(sql,
+				rs -> new long[] { rs.getInt("categoryID"), rs.getLong("date"), rs.getLong("amount") }, sessionId, start, end);
+		for (long[] row : rows) {
+			session.categories.computeIfAbsent((int) row[0], c -> new Window()).add(row[1], row[2]);
+		}
+		return session;
+	}
+}
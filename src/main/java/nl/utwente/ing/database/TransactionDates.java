@@ -0,0 +1,59 @@
+package nl.utwente.ing.database;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory dates of the first and last transaction of every session, so the checks made while adding a
+ * transaction do not have to look them up in the transactions table.
+ *
+ * The dates of a session are loaded from its sessionStats row on first use. They are kept up to date by the
+ * database writer, inside the unit of work that adds the transactions, and dropped whenever the totals of
+ * the session are recomputed or the unit of work that changed them is rolled back.
+ */
+public class TransactionDates {
+	// First and last date, or an empty array if the session has no transactions
+	private static final long[] NONE = new long[0];
+
+	private final ConcurrentMap<Integer, long[]> dates = new ConcurrentHashMap<>();
+
+	/**
+	 * @return the date of the first transaction of the session, or null if it has no transactions
+	 */
+	public Long getFirst(int sessionId) {
+		long[] d = load(sessionId);
+		return d == NONE ? null : d[0];
+	}
+
+	/**
+	 * @return the date of the last transaction of the session, or null if it has no transactions
+	 */
+	public Long getLast(int sessionId) {
+		long[] d = load(sessionId);
+		return d == NONE ? null : d[1];
+	}
+
+	/**
+	 * Adds the date of a new transaction of the session, if its dates are loaded.
+	 */
+	public void add(int sessionId, long unixTimestamp) {
+		dates.computeIfPresent(sessionId, (s, d) -> d == NONE ? new long[] { unixTimestamp, unixTimestamp }
+				: new long[] { Math.min(d[0], unixTimestamp), Math.max(d[1], unixTimestamp) });
+	}
+
+	/**
+	 * Drops the dates of the session, so they are loaded again on next use.
+	 */
+	public void forget(int sessionId) {
+		dates.remove(sessionId);
+	}
+
+	private long[] load(int sessionId) {
+		return dates.computeIfAbsent(sessionId, s -> {
+			String sql = "SELECT first_date, last_date FROM sessionStats WHERE session = ? AND count > 0";
+			long[] d = QueryTemplate.queryForObject(sql,
+					rs -> new long[] { rs.getLong("first_date"), rs.getLong("last_date") }, sessionId);
+			return d == null ? NONE : d;
+		});
+	}
+}
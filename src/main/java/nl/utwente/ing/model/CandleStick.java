@@ -1,22 +1,21 @@
 package nl.utwente.ing.model;
 
-import java.time.Instant;
-import java.time.ZoneOffset;
-import java.time.format.DateTimeFormatter;
-
 public class CandleStick {
-	private double open;
-	private double close;
-	private double high;
-	private double low;
-	private double volume;
+	private long open;
+	private long close;
+	private long high;
+	private long low;
+	private long volume;
 	private long timestamp;
 	
 	public CandleStick() {
 		
 	}
 	
-	public CandleStick(double open, double close, double high, double low, double volume, long timestamp) {
+	/**
+	 * Constructs a candlestick with all amounts given in cents.
+	 */
+	public CandleStick(long open, long close, long high, long low, long volume, long timestamp) {
 		this.open = open;
 		this.close = close;
 		this.high = high;
@@ -26,51 +25,53 @@ public class CandleStick {
 	}
 
 	public double getOpen() {
-		return open;
+		return Money.fromCents(open);
 	}
 
 	public void setOpen(double open) {
-		this.open = open;
+		this.open = Money.toCents(open);
 	}
 
 	public double getClose() {
-		return close;
+		return Money.fromCents(close);
 	}
 
 	public void setClose(double close) {
-		this.close = close;
+		this.close = Money.toCents(close);
 	}
 
 	public double getHigh() {
-		return high;
+		return Money.fromCents(high);
 	}
 
 	public void setHigh(double high) {
-		this.high = high;
+		this.high = Money.toCents(high);
 	}
 
 	public double getLow() {
-		return low;
+		return Money.fromCents(low);
 	}
 
 	public void setLow(double low) {
-		this.low = low;
+		this.low = Money.toCents(low);
 	}
 
 	public double getVolume() {
-		return volume;
+		return Money.fromCents(volume);
 	}
 
 	public void setVolume(double volume) {
-		this.volume = volume;
+		this.volume = Money.toCents(volume);
+	}
+	
+	public long returnHighCents() {
+		return high;
 	}
 	
 	@Override
 	public String toString() {
-		return "open= " + open + " close= " + close + " high= " + high + " low= " + low + " volume= " + volume + " time= " +
-	DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mmX")
-    .withZone(ZoneOffset.UTC)
-    .format(Instant.ofEpochSecond(timestamp));
+		return "open= " + getOpen() + " close= " + getClose() + " high= " + getHigh() + " low= " + getLow() + " volume= " + getVolume() + " time= " +
+	Dates.format(timestamp);
 	}
 
 	public long getTimestamp() {
@@ -80,4 +81,11 @@ public class CandleStick {
 	public void setTimestamp(long timestamp) {
 		this.timestamp = timestamp;
 	}
+
+	/**
+	 * @return a copy that can be changed without changing this candlestick
+	 */
+	public CandleStick copy() {
+		return new CandleStick(open, close, high, low, volume, timestamp);
+	}
 }
@@ -40,4 +40,11 @@ public class Category {
 		
 		return result;
 	}
+
+	/**
+	 * @return a copy that can be changed without changing this category
+	 */
+	public Category copy() {
+		return new Category(id, name);
+	}
 }
@@ -114,4 +114,18 @@ public class CategoryRule {
 			.put("category_id", category_id);
 		return json.toString();
 	}
+
+	/**
+	 * @return a copy that can be changed without changing this category rule
+	 */
+	public CategoryRule copy() {
+		CategoryRule copy = new CategoryRule();
+		copy.id = id;
+		copy.description = description;
+		copy.iBAN = iBAN;
+		copy.type = type;
+		copy.category_id = category_id;
+		copy.applyOnHistory = applyOnHistory;
+		return copy;
+	}
 }
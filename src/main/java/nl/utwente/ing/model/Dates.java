@@ -0,0 +1,46 @@
+package nl.utwente.ing.model;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Conversion between the date strings used in the API and the unix timestamps used internally.
+ * The formatters are immutable and shared by all models.
+ */
+public final class Dates {
+	/**
+	 * Format of the dates returned by the API.
+	 */
+	public static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mmX")
+			.withZone(ZoneOffset.UTC);
+
+	private Dates() {
+	}
+
+	/**
+	 * @param unixTimestamp
+	 * 		Seconds since the epoch
+	 * @return
+	 * 		The timestamp formatted as returned by the API
+	 */
+	public static String format(long unixTimestamp) {
+		return FORMATTER.format(Instant.ofEpochSecond(unixTimestamp));
+	}
+
+	/**
+	 * Parses an ISO date-time given in the API. The local date and time are read as UTC,
+	 * any offset in the string is not applied.
+	 * @param date
+	 * 		ISO date-time string
+	 * @return
+	 * 		Seconds since the epoch
+	 * @throws DateTimeParseException
+	 * 		if the string is not a valid ISO date-time
+	 */
+	public static long parse(String date) {
+		return LocalDateTime.from(DateTimeFormatter.ISO_DATE_TIME.parse(date)).toEpochSecond(ZoneOffset.UTC);
+	}
+}
@@ -0,0 +1,80 @@
+package nl.utwente.ing.model;
+
+/**
+ * Progress of applying a category rule to the transactions that were added before it.
+ * The job is updated by the thread that runs it while it is being read by requests.
+ */
+public class HistoryJob {
+	private final int categoryRuleId;
+	private final int sessionId;
+	private volatile JobStatus status = JobStatus.queued;
+	private volatile int total;
+	private volatile int processed;
+	private volatile int updated;
+	// When the job was done or failed, in milliseconds since the epoch, 0 while it has not finished
+	private volatile long finished;
+	
+	public HistoryJob(int categoryRuleId, int sessionId) {
+		this.categoryRuleId = categoryRuleId;
+		this.sessionId = sessionId;
+	}
+
+	public int getCategoryRuleId() {
+		return categoryRuleId;
+	}
+
+	public int returnSessionId() {
+		return sessionId;
+	}
+
+	public JobStatus getStatus() {
+		return status;
+	}
+
+	public void setStatus(JobStatus status) {
+		if (status == JobStatus.done || status == JobStatus.failed) {
+			finished = System.currentTimeMillis();
+		}
+		this.status = status;
+	}
+
+	/**
+	 * @return when the job was done or failed in milliseconds since the epoch, or 0 if it has not finished
+	 */
+	public long returnFinished() {
+		return finished;
+	}
+
+	/**
+	 * @return the number of external transactions to check, counted when the job started
+	 */
+	public int getTotal() {
+		return total;
+	}
+
+	public void setTotal(int total) {
+		this.total = total;
+	}
+
+	/**
+	 * @return the number of transactions checked so far
+	 */
+	public int getProcessed() {
+		return processed;
+	}
+
+	public void addProcessed(int processed) {
+		this.processed += processed;
+	}
+
+	/**
+	 * @return the number of transactions whose category has been changed so far
+	 */
+	public int getUpdated() {
+		return updated;
+	}
+
+	public void addUpdated(int updated) {
+		this.updated += updated;
+	}
+}
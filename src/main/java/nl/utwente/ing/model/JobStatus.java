@@ -0,0 +1,5 @@
+package nl.utwente.ing.model;
+
+public enum JobStatus {
+	queued, running, done, failed;
+}
@@ -1,14 +1,14 @@
 package nl.utwente.ing.model;
 
-import java.time.Instant;
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
-import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 
 public class Message {
 	private int id;
 	private String message;
+	// The date as given, or formatted from the timestamp when it is first requested
 	private String date;
+	private long unixTimestamp;
+	private boolean validDate;
 	private boolean read;
 	private MessageType type;
 	
@@ -18,12 +18,10 @@ public class Message {
 	
 	public Message(int id, String message, long unixTimestamp, 
 			boolean read, String type) {
-		String date = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mmX")
-                .withZone(ZoneOffset.UTC)
-                .format(Instant.ofEpochSecond(unixTimestamp));
 		setId(id);
 		setMessage(message);
-		setDate(date);
+		this.unixTimestamp = unixTimestamp;
+		this.validDate = true;
 		setRead(read);
 		setType(MessageType.valueOf(type));
 	}
@@ -45,11 +43,20 @@ public class Message {
 	}
 
 	public String getDate() {
+		if (date == null && validDate) {
+			date = Dates.format(unixTimestamp);
+		}
 		return date;
 	}
 
 	public void setDate(String date) {
 		this.date = date;
+		try {
+			unixTimestamp = Dates.parse(date);
+			validDate = true;
+		} catch (DateTimeParseException | NullPointerException e) {
+			validDate = false;
+		}
 	}
 
 	public boolean isRead() {
@@ -69,7 +76,9 @@ public class Message {
 	}
 	
 	public long returnUnixTimestamp() {
-		DateTimeFormatter formatter = DateTimeFormatter.ISO_DATE_TIME;
-		return LocalDateTime.from(formatter.parse(date)).toEpochSecond(ZoneOffset.UTC);
+		if (!validDate) {
+			throw new IllegalStateException("Message has no valid date");
+		}
+		return unixTimestamp;
 	}
 }
@@ -3,17 +3,17 @@ package nl.utwente.ing.model;
 public class MessageRule {
 	private int id;
 	private MessageType type;
-	private double value;
+	private long value;
 	private int category_id;
 	
 	public MessageRule() {
 		
 	}
 	
-	public MessageRule(int id, String type, double value, int category_id) {
+	public MessageRule(int id, String type, long valueCents, int category_id) {
 		setId(id);
 		setType(MessageType.valueOf(type));
-		setValue(value);
+		this.value = valueCents;
 		setCategory_id(category_id);
 	}
 	public int getId() {
@@ -29,10 +29,13 @@ public class MessageRule {
 		this.type = type;
 	}
 	public double getValue() {
-		return value;
+		return Money.fromCents(value);
 	}
 	public void setValue(double value) {
-		this.value = value;
+		this.value = Money.toCents(value);
+	}
+	public long returnValueCents() {
+		return value;
 	}
 	public int getCategory_id() {
 		return category_id;
@@ -0,0 +1,33 @@
+package nl.utwente.ing.model;
+
+/**
+ * Conversion between the amounts used in the API and the amounts used internally.
+ *
+ * Internally all amounts are stored and computed as a whole number of cents, so sums and
+ * comparisons are exact. Amounts are only converted to and from decimals at the JSON boundary.
+ */
+public final class Money {
+
+	private Money() {
+	}
+
+	/**
+	 * @param amount
+	 * 		Amount in euros, as given in the API
+	 * @return
+	 * 		The amount in cents, rounded to the nearest cent
+	 */
+	public static long toCents(double amount) {
+		return Math.round(amount * 100);
+	}
+
+	/**
+	 * @param cents
+	 * 		Amount in cents
+	 * @return
+	 * 		The amount in euros, as returned by the API
+	 */
+	public static double fromCents(long cents) {
+		return cents / 100.0;
+	}
+}
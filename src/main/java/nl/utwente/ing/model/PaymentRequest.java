@@ -1,9 +1,5 @@
 package nl.utwente.ing.model;
 
-import java.time.Instant;
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
-import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.List;
@@ -11,28 +7,32 @@ import java.util.List;
 public class PaymentRequest {
 	private int id;
 	private String description;
+	// The due date as given by the client, or formatted from the timestamp when it is first requested
 	private String due_date;
-	private double amount;
+	private long unixTimestamp;
+	private boolean validDate;
+	private long amount;
 	private int number_of_requests;
 	private boolean filled;
 	private List<Transaction> transactions = new ArrayList<>();
+	private int paidCount;
 	
 	public PaymentRequest() {
 		
 	}
 	
 
-	public PaymentRequest(int id, String description, long unixTimestamp, double amount, int number_of_requests,
-			boolean filled, List<Transaction> transactions) {
+	public PaymentRequest(int id, String description, long unixTimestamp, long amountCents, int number_of_requests,
+			boolean filled, int paidCount, List<Transaction> transactions) {
 		
-		due_date = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mmX")
-                .withZone(ZoneOffset.UTC)
-                .format(Instant.ofEpochSecond(unixTimestamp));
+		this.unixTimestamp = unixTimestamp;
+		this.validDate = true;
 		this.id = id;
 		this.description = description;
-		this.amount = amount;
+		this.amount = amountCents;
 		this.number_of_requests = number_of_requests;
 		this.filled = filled;
+		this.paidCount = paidCount;
 		this.transactions = transactions;
 	}
 
@@ -57,6 +57,9 @@ public class PaymentRequest {
 	 * @return the due_date
 	 */
 	public String getDue_date() {
+		if (due_date == null && validDate) {
+			due_date = Dates.format(unixTimestamp);
+		}
 		return due_date;
 	}
 
@@ -66,6 +69,12 @@ public class PaymentRequest {
 	 */
 	public void setDue_date(String due_date) {
 		this.due_date = due_date;
+		try {
+			unixTimestamp = Dates.parse(due_date);
+			validDate = true;
+		} catch (DateTimeParseException | NullPointerException e) {
+			validDate = false;
+		}
 	}
 
 
@@ -73,7 +82,7 @@ public class PaymentRequest {
 	 * @return the amount
 	 */
 	public double getAmount() {
-		return amount;
+		return Money.fromCents(amount);
 	}
 
 
@@ -81,7 +90,15 @@ public class PaymentRequest {
 	 * @param amount the amount to set
 	 */
 	public void setAmount(double amount) {
-		this.amount = amount;
+		this.amount = Money.toCents(amount);
+	}
+	
+	
+	/**
+	 * @return the amount in cents
+	 */
+	public long returnAmountCents() {
+		return amount;
 	}
 
 
@@ -151,18 +168,15 @@ public class PaymentRequest {
 	 * @return int number of transactions paid for this payment request
 	 */
 	public int transactionNumber() {
-		return transactions.size();
+		return paidCount;
 	}
 	
 	public boolean validPaymentRequest() {
-		if (description == null || amount <= 0 || due_date == null || number_of_requests <= 0 || transactions == null) {
+		if (description == null || amount <= 0 || getDue_date() == null || number_of_requests <= 0 || transactions == null) {
 			return false;
 		}
 		// if the date is not valid date-time
-		try {
-			DateTimeFormatter timeFormatter = DateTimeFormatter.ISO_DATE_TIME;
-		    timeFormatter.parse(due_date);
-		} catch (DateTimeParseException e) {
+		if (!validDate) {
 			System.out.println("Date formatting problem");
 			return false;
 		}
@@ -171,7 +185,34 @@ public class PaymentRequest {
 	}
 	
 	public long returnUnixTimestamp() {
-		DateTimeFormatter formatter = DateTimeFormatter.ISO_DATE_TIME;
-		return LocalDateTime.from(formatter.parse(due_date)).toEpochSecond(ZoneOffset.UTC);
+		if (!validDate) {
+			throw new IllegalStateException("Payment request has no valid due date");
+		}
+		return unixTimestamp;
+	}
+
+	/**
+	 * @return a copy, including its transactions, that can be changed without changing this payment request
+	 */
+	public PaymentRequest copy() {
+		PaymentRequest copy = new PaymentRequest();
+		copy.id = id;
+		copy.description = description;
+		copy.due_date = due_date;
+		copy.unixTimestamp = unixTimestamp;
+		copy.validDate = validDate;
+		copy.amount = amount;
+		copy.number_of_requests = number_of_requests;
+		copy.filled = filled;
+		copy.paidCount = paidCount;
+		if (transactions != null) {
+			copy.transactions = new ArrayList<>();
+			for (Transaction t : transactions) {
+				copy.transactions.add(t.copy());
+			}
+		} else {
+			copy.transactions = null;
+		}
+		return copy;
 	}
 }
@@ -3,23 +3,26 @@ package nl.utwente.ing.model;
 public class SavingGoal {
 	private int id;
 	private String name;
-	private double goal;
-	private double savePerMonth;
-	private double minBalanceRequired;
-	private double balance;
+	private long goal;
+	private long savePerMonth;
+	private long minBalanceRequired;
+	private long balance;
 	
 	public SavingGoal() {
 		
 	}
 
 	
-	public SavingGoal(int id, String name, double goal, double savePerMonth, double minBalanceRequired, double balance) {
+	/**
+	 * Constructs a saving goal with all amounts given in cents.
+	 */
+	public SavingGoal(int id, String name, long goal, long savePerMonth, long minBalanceRequired, long balance) {
 		setId(id);
 		setName(name);
-		setGoal(goal);
-		setSavePerMonth(savePerMonth);
-		setMinBalanceRequired(minBalanceRequired);
-		setBalance(balance);
+		this.goal = goal;
+		this.savePerMonth = savePerMonth;
+		this.minBalanceRequired = minBalanceRequired;
+		this.balance = balance;
 	}
 
 
@@ -44,42 +47,70 @@ public class SavingGoal {
 
 
 	public double getGoal() {
-		return goal;
+		return Money.fromCents(goal);
 	}
 
 
 	public void setGoal(double goal) {
-		this.goal = goal;
+		this.goal = Money.toCents(goal);
 	}
 
 
 	public double getSavePerMonth() {
-		return savePerMonth;
+		return Money.fromCents(savePerMonth);
 	}
 
 
 	public void setSavePerMonth(double savePerMonth) {
-		this.savePerMonth = savePerMonth;
+		this.savePerMonth = Money.toCents(savePerMonth);
 	}
 
 
 	public double getMinBalanceRequired() {
-		return minBalanceRequired;
+		return Money.fromCents(minBalanceRequired);
 	}
 
 
 	public void setMinBalanceRequired(double minBalanceRequired) {
-		this.minBalanceRequired = minBalanceRequired;
+		this.minBalanceRequired = Money.toCents(minBalanceRequired);
 	}
 
 
 	public double getBalance() {
-		return balance;
+		return Money.fromCents(balance);
 	}
 
 
 	public void setBalance(double balance) {
-		this.balance = balance;
+		this.balance = Money.toCents(balance);
+	}
+	
+	
+	public long returnGoalCents() {
+		return goal;
+	}
+	
+	
+	public long returnSavePerMonthCents() {
+		return savePerMonth;
+	}
+	
+	
+	public long returnMinBalanceRequiredCents() {
+		return minBalanceRequired;
+	}
+	
+	
+	public long returnBalanceCents() {
+		return balance;
+	}
+	
+	
+	/**
+	 * @param cents amount in cents to add to the balance of the goal
+	 */
+	public void addToBalance(long cents) {
+		balance += cents;
 	}
 	
 	public boolean validSavingGoal() {
@@ -89,4 +120,11 @@ public class SavingGoal {
 			return true;
 		}
 	}
+
+	/**
+	 * @return a copy that can be changed without changing this saving goal
+	 */
+	public SavingGoal copy() {
+		return new SavingGoal(id, name, goal, savePerMonth, minBalanceRequired, balance);
+	}
 }
@@ -0,0 +1,71 @@
+package nl.utwente.ing.model;
+
+/**
+ * Running totals over all transactions of a session, including the internal ones.
+ * All amounts are in cents and the high and low start at a balance of zero.
+ */
+public class SessionStats {
+	private long balance;
+	private long high;
+	private long low;
+	private long firstDate;
+	private long lastDate;
+	private int count;
+	
+	public SessionStats() {
+		
+	}
+	
+	public SessionStats(long balance, long high, long low, long firstDate, long lastDate, int count) {
+		this.balance = balance;
+		this.high = high;
+		this.low = low;
+		this.firstDate = firstDate;
+		this.lastDate = lastDate;
+		this.count = count;
+	}
+	
+	/**
+	 * Adds a transaction to the totals.
+	 * @param signedAmount amount in cents, negative for withdrawals
+	 * @param unixTimestamp date of the transaction
+	 */
+	public void add(long signedAmount, long unixTimestamp) {
+		balance += signedAmount;
+		high = Math.max(high, balance);
+		low = Math.min(low, balance);
+		firstDate = count == 0 ? unixTimestamp : Math.min(firstDate, unixTimestamp);
+		lastDate = count == 0 ? unixTimestamp : Math.max(lastDate, unixTimestamp);
+		count++;
+	}
+	
+	public long getBalance() {
+		return balance;
+	}
+	
+	public long getHigh() {
+		return high;
+	}
+	
+	public long getLow() {
+		return low;
+	}
+	
+	/**
+	 * @return date of the earliest transaction, only meaningful if there are transactions
+	 */
+	public long getFirstDate() {
+		return firstDate;
+	}
+	
+	/**
+	 * @return date of the latest transaction, only meaningful if there are transactions
+	 */
+	public long getLastDate() {
+		return lastDate;
+	}
+	
+	public int getCount() {
+		return count;
+	}
+}
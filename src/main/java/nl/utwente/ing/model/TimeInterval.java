@@ -1,5 +1,8 @@
 package nl.utwente.ing.model;
 
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
 
 public enum TimeInterval {
@@ -19,5 +22,51 @@ public enum TimeInterval {
 		this.unit = unit;
 	}
 	
+	/**
+	 * @return the time interval with the given unit
+	 * @throws IllegalArgumentException if no time interval has the unit
+	 */
+	public static TimeInterval of(ChronoUnit unit) {
+		for (TimeInterval interval : values()) {
+			if (interval.getUnit().equals(unit)) {
+				return interval;
+			}
+		}
+		throw new IllegalArgumentException("No time interval for " + unit);
+	}
+	
+	/**
+	 * Rounds down to the beginning of the Hour, Day, Week, Month or Year
+	 * @param time
+	 * 		Time in UTC
+	 * @return
+	 * 		The start of the interval that contains the time
+	 */
+	public ZonedDateTime truncate(ZonedDateTime time) {
+		switch (this) {
+		case WEEK:
+			// Rounds down to the first day of the week
+			time = time.truncatedTo(ChronoUnit.DAYS);
+			return time.minus(time.getDayOfWeek().getValue() - 1, ChronoUnit.DAYS);
+		case MONTH:
+			// Rounds down to the first day of the month
+			return time.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1);
+		case YEAR:
+			// Rounds down to the first day of the year
+			return time.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1).withMonth(1);
+		default:
+			return time.truncatedTo(unit);
+		}
+	}
+	
+	/**
+	 * @param unixTimestamp
+	 * 		Seconds since the epoch
+	 * @return
+	 * 		The start of the interval that contains the timestamp, in seconds since the epoch
+	 */
+	public long truncate(long unixTimestamp) {
+		return truncate(Instant.ofEpochSecond(unixTimestamp).atZone(ZoneOffset.UTC)).toEpochSecond();
+	}
 
 }
@@ -1,9 +1,6 @@
 package nl.utwente.ing.model;
 
 import java.time.Instant;
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
-import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 
 import org.springframework.stereotype.Component;
@@ -14,9 +11,12 @@ public class Transaction {
 	
 	private String externalIBAN;
 	
-	private double amount;
+	private long amount;
 	private String description = "";
+	// The date as given by the client, or formatted from the timestamp when it is first requested
 	private String date;
+	private long unixTimestamp;
+	private boolean validDate;
 	private TransactionType type;
 	private Category category;
 	
@@ -29,28 +29,21 @@ public class Transaction {
 	 * @param unixTimestamp
 	 * @param amount
 	 */
-	public Transaction(long unixTimestamp, double amount) {
-		String date = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mmX")
-                .withZone(ZoneOffset.UTC)
-                .format(Instant.ofEpochSecond(unixTimestamp));
+	public Transaction(long unixTimestamp, long amountCents) {
 		setId(-1);
-		setAmount(amount);
-		setDate(date);
+		this.amount = amountCents;
+		setUnixTimestamp(unixTimestamp);
 		setType(TransactionType.withdrawal);
 		setExternalIBAN("");
 		setCategory(null);
 	}
 	
-	public Transaction(int id, long unixTimestamp, double amount, String description,
+	public Transaction(int id, long unixTimestamp, long amountCents, String description,
 			String externalIBAN, String type, Category category) {
-		
-		String date = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mmX")
-                .withZone(ZoneOffset.UTC)
-                .format(Instant.ofEpochSecond(unixTimestamp));
 		setId(id);
-		setAmount(amount);
+		this.amount = amountCents;
 		setDescription(description);
-		setDate(date);
+		setUnixTimestamp(unixTimestamp);
 		setType(TransactionType.valueOf(type));
 		setExternalIBAN(externalIBAN);
 		setCategory(category);
@@ -66,25 +59,45 @@ public class Transaction {
 
 
 	public double getAmount() {
-		return amount;
+		return Money.fromCents(amount);
 	}
 
 	public void setAmount(double amount) {
-		this.amount = amount;
+		this.amount = Money.toCents(amount);
+	}
+	
+	/**
+	 * @return the amount in cents
+	 */
+	public long returnAmountCents() {
+		return amount;
 	}
 
 	public String getDate() {
+		if (date == null && validDate) {
+			date = Dates.format(unixTimestamp);
+		}
 		return date;
 	}
 
 	public void setDate(String date) {
 		this.date = date;
+		try {
+			unixTimestamp = Dates.parse(date);
+			validDate = true;
+		} catch (DateTimeParseException | NullPointerException e) {
+			validDate = false;
+		}
 	}
 	
 	public void setDate(Instant i) {
-		this.date =  DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mmX")
-                .withZone(ZoneOffset.UTC)
-                .format(i);
+		setUnixTimestamp(i.getEpochSecond());
+	}
+	
+	private void setUnixTimestamp(long unixTimestamp) {
+		this.unixTimestamp = unixTimestamp;
+		this.validDate = true;
+		this.date = null;
 	}
 
 	public Category getCategory() {
@@ -120,30 +133,29 @@ public class Transaction {
 	}
 	
 	public long returnUnixTimestamp() {
-		DateTimeFormatter formatter = DateTimeFormatter.ISO_DATE_TIME;
-		return LocalDateTime.from(formatter.parse(date)).toEpochSecond(ZoneOffset.UTC);
+		if (!validDate) {
+			throw new IllegalStateException("Transaction has no valid date");
+		}
+		return unixTimestamp;
 	}
 	
 	public boolean validTransaction() {
 		
 		// if a value is null
-		if (externalIBAN == null || date == null || type == null || description == null) {
+		if (externalIBAN == null || getDate() == null || type == null || description == null) {
 			System.out.println("Null value problem");
 			return false;
 		}
 		
 		
 		// if amount is negative or zero
-		if (amount < 1) {
+		if (amount < 100) {
 			System.out.println("Amount value problem");
 			return false;
 		}
 		
 		// if the date is not valid date-time
-		try {
-			DateTimeFormatter timeFormatter = DateTimeFormatter.ISO_DATE_TIME;
-		    timeFormatter.parse(date);
-		} catch (DateTimeParseException e) {
+		if (!validDate) {
 			System.out.println("Date formatting problem");
 			return false;
 		}
@@ -160,4 +172,21 @@ public class Transaction {
 		this.description = description;
 	}
 	
+
+	/**
+	 * @return a copy, including its category, that can be changed without changing this transaction
+	 */
+	public Transaction copy() {
+		Transaction copy = new Transaction();
+		copy.id = id;
+		copy.externalIBAN = externalIBAN;
+		copy.amount = amount;
+		copy.description = description;
+		copy.date = date;
+		copy.unixTimestamp = unixTimestamp;
+		copy.validDate = validDate;
+		copy.type = type;
+		copy.category = category == null ? null : category.copy();
+		return copy;
+	}
 }
@@ -1,19 +1,9 @@
 package nl.utwente.ing.service;
 
-import java.sql.ResultSet;
-import java.sql.SQLException;
-
+import nl.utwente.ing.database.RowMapper;
 import nl.utwente.ing.model.Category;
 
 public class CategoryService {
-	public static Category getCategory(ResultSet rs) {
-		try {
-			if (rs.next()) {
-			    return new Category(rs.getInt("id"), rs.getString("name"));
-			}
-		} catch (SQLException e) {
-			e.printStackTrace();
-		}
-		return null;
-	}
+	public static final RowMapper<Category> CATEGORY_MAPPER = rs ->
+			new Category(rs.getInt("id"), rs.getString("name"));
 }
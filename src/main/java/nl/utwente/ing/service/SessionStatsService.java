@@ -0,0 +1,10 @@
+package nl.utwente.ing.service;
+
+import nl.utwente.ing.database.RowMapper;
+import nl.utwente.ing.model.SessionStats;
+
+public class SessionStatsService {
+	public static final RowMapper<SessionStats> SESSION_STATS_MAPPER = rs ->
+			new SessionStats(rs.getLong("balance"), rs.getLong("high"), rs.getLong("low"),
+					rs.getLong("first_date"), rs.getLong("last_date"), rs.getInt("count"));
+}
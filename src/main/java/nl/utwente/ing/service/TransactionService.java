@@ -1,30 +1,27 @@
 package nl.utwente.ing.service;
 
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
-
-import nl.utwente.ing.database.DatabaseCommunication;
+import nl.utwente.ing.database.RowMapper;
+import nl.utwente.ing.model.Category;
 import nl.utwente.ing.model.Transaction;
 
 public class TransactionService {
-	public static List<Transaction> getTransactions(ResultSet rs){
-		List<Transaction> result = new ArrayList<>();
-		try {
-			while(rs.next()) {
-				int categoryID = rs.getInt("categoryID");
-				if (rs.wasNull()) {
-					categoryID = -1;
-				}
-				result.add(new Transaction(rs.getInt("id"), rs.getLong("date"),
-	            		rs.getDouble("amount"), rs.getString("description"), rs.getString("externalIBAN"), rs.getString("type"),
-	            		DatabaseCommunication.getCategory(categoryID)));
-			}
-		} catch (SQLException e) {
-				System.out.println(e.getMessage());
-			}
-		return result;
-	}
+	/**
+	 * Selects transactions (aliased t) together with the name of their category, so they can
+	 * be mapped by TRANSACTION_MAPPER without looking up the category of every row.
+	 */
+	public static final String TRANSACTION_COLUMNS = "t.*, c.name AS category_name";
+	public static final String TRANSACTION_TABLES = "transactions t LEFT JOIN categories c ON c.id = t.categoryID";
+	public static final String TRANSACTION_SELECT = "SELECT " + TRANSACTION_COLUMNS + " FROM " + TRANSACTION_TABLES;
 	
+	public static final RowMapper<Transaction> TRANSACTION_MAPPER = rs -> {
+		Category category = null;
+		int categoryID = rs.getInt("categoryID");
+		String categoryName = rs.getString("category_name");
+		if (categoryName != null) {
+			category = new Category(categoryID, categoryName);
+		}
+		return new Transaction(rs.getInt("id"), rs.getLong("date"),
+				rs.getLong("amount"), rs.getString("description"), rs.getString("externalIBAN"), rs.getString("type"),
+				category);
+	};
 }
@@ -0,0 +1,87 @@
+package nl.utwente.ing.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import nl.utwente.ing.model.Category;
+
+public class ResponseCacheTest {
+
+	@Test
+	public void returnsCopiesOfTheCachedResponse() {
+		ResponseCache cache = new ResponseCache(100);
+		List<Category> first = cache.get(1, "categories", "", 0, () -> categories(2), Category::copy);
+		first.get(0).setName("changed");
+		first.clear();
+
+		List<Category> second = cache.get(1, "categories", "", 0, () -> categories(0), Category::copy);
+		assertEquals(2, second.size());
+		assertEquals("category0", second.get(0).getName());
+		assertNotSame(second, cache.get(1, "categories", "", 0, () -> categories(0), Category::copy));
+		assertEquals(2, cache.getHits());
+	}
+
+	@Test
+	public void evictsByNumberOfObjects() {
+		ResponseCache cache = new ResponseCache(10);
+		cache.get(1, "history", "a", 0, () -> categories(4), Category::copy);
+		cache.get(1, "history", "b", 0, () -> categories(4), Category::copy);
+		assertEquals(10, cache.getObjects());
+
+		// Does not fit next to both, so the least recently used one is evicted
+		cache.get(1, "history", "c", 0, () -> categories(1), Category::copy);
+		assertEquals(2, cache.getSize());
+		assertEquals(7, cache.getObjects());
+		assertEquals(1, cache.getEvictions());
+
+		// Larger than the whole cache
+		cache.get(1, "history", "d", 0, () -> categories(10), Category::copy);
+		assertEquals(2, cache.getSize());
+	}
+
+	@Test
+	public void failedLoadIsNotCached() {
+		ResponseCache cache = new ResponseCache(100);
+		AtomicInteger loads = new AtomicInteger();
+		try {
+			cache.get(1, "categories", "", 0, () -> {
+				loads.incrementAndGet();
+				throw new IllegalStateException("database is busy");
+			}, Category::copy);
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		List<Category> response = cache.get(1, "categories", "", 0, () -> {
+			loads.incrementAndGet();
+			return categories(1);
+		}, Category::copy);
+		assertEquals(1, response.size());
+		assertEquals(2, loads.get());
+		assertEquals(0, cache.getHits());
+	}
+
+	@Test
+	public void countsNestedObjects() {
+		ResponseCache cache = new ResponseCache(100);
+		cache.get(1, "nested", "", 0, () -> Arrays.asList(categories(3), categories(5)), ArrayList::new, List::size);
+		assertEquals(9, cache.getObjects());
+	}
+
+	private static List<Category> categories(int count) {
+		List<Category> result = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			result.add(new Category(i, "category" + i));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,131 @@
+package nl.utwente.ing.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import nl.utwente.ing.model.CategoryRule;
+import nl.utwente.ing.model.TransactionType;
+
+public class CategoryRuleMatcherTest {
+
+	@Test
+	public void findsOverlappingAndNestedPatterns() {
+		List<CategoryRule> rules = rules("he", "she", "his", "hers", "s", "hershey", "ushers!");
+		CategoryRuleMatcher matcher = new CategoryRuleMatcher(rules, 0);
+
+		assertEquals(ids(0, 1, 3, 4), ids(matcher.match("ushers", "NL", TransactionType.withdrawal)));
+		assertEquals(ids(2, 4), ids(matcher.match("this", "NL", TransactionType.withdrawal)));
+		assertEquals(ids(0, 1, 3, 4, 5), ids(matcher.match("shershey", "NL", TransactionType.withdrawal)));
+		assertEquals(expected(rules, "hishers", "NL", TransactionType.withdrawal),
+				matcher.match("hishers", "NL", TransactionType.withdrawal));
+	}
+
+	@Test
+	public void emptyPatternsMatchEveryText() {
+		List<CategoryRule> rules = Arrays.asList(rule(0, "", "", "withdrawal"), rule(1, "shop", "", "withdrawal"),
+				rule(2, "", "NL02", "withdrawal"));
+		CategoryRuleMatcher matcher = new CategoryRuleMatcher(rules, 0);
+
+		assertEquals(ids(0), ids(matcher.match("", "", TransactionType.withdrawal)));
+		assertEquals(ids(0, 1), ids(matcher.match("shopping", "NL01", TransactionType.withdrawal)));
+		assertEquals(ids(0, 1, 2), ids(matcher.match("shop", "NL02", TransactionType.withdrawal)));
+	}
+
+	@Test
+	public void repeatedPatternsMatchAllTheirRules() {
+		List<CategoryRule> rules = rules("shop", "rent", "shop", "shop");
+		CategoryRuleMatcher matcher = new CategoryRuleMatcher(rules, 0);
+
+		assertEquals(ids(0, 2, 3), ids(matcher.match("shop shop", "NL", TransactionType.withdrawal)));
+		assertEquals(ids(0, 1, 2, 3), ids(matcher.match("rent at the shop", "NL", TransactionType.withdrawal)));
+	}
+
+	@Test
+	public void onlyRulesOfTheTransactionTypeMatch() {
+		List<CategoryRule> rules = Arrays.asList(rule(0, "salary", "", "deposit"), rule(1, "salary", "", "withdrawal"),
+				rule(2, "", "", "deposit"));
+		CategoryRuleMatcher matcher = new CategoryRuleMatcher(rules, 0);
+
+		assertEquals(ids(0, 2), ids(matcher.match("salary May", "NL", TransactionType.deposit)));
+		assertEquals(ids(1), ids(matcher.match("salary May", "NL", TransactionType.withdrawal)));
+		assertTrue(new CategoryRuleMatcher(new ArrayList<>(), 0).match("salary", "NL", TransactionType.deposit).isEmpty());
+	}
+
+	@Test
+	public void matchesLikeContainsOnRandomRules() {
+		Random random = new Random(19);
+		TransactionType[] types = TransactionType.values();
+		for (int run = 0; run < 200; run++) {
+			List<CategoryRule> rules = new ArrayList<>();
+			int nrRules = random.nextInt(12);
+			for (int i = 0; i < nrRules; i++) {
+				rules.add(rule(i, text(random, 4), text(random, 2), types[random.nextInt(types.length)].toString()));
+			}
+			CategoryRuleMatcher matcher = new CategoryRuleMatcher(rules, 0);
+			for (int i = 0; i < 20; i++) {
+				String description = text(random, 12);
+				String iBAN = text(random, 5);
+				TransactionType type = types[random.nextInt(types.length)];
+				assertEquals(description + " " + iBAN, expected(rules, description, iBAN, type),
+						matcher.match(description, iBAN, type));
+			}
+		}
+	}
+
+	/**
+	 * The rules that match, found by checking every rule in order.
+	 */
+	private static List<CategoryRule> expected(List<CategoryRule> rules, String description, String iBAN,
+			TransactionType type) {
+		List<CategoryRule> result = new ArrayList<>();
+		for (CategoryRule rule : rules) {
+			if (description.contains(rule.getDescription()) && iBAN.contains(rule.getiBAN()) && type.equals(rule.getType())) {
+				result.add(rule);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Text over a small alphabet, so patterns often overlap and repeat.
+	 */
+	private static String text(Random random, int maxLength) {
+		StringBuilder text = new StringBuilder();
+		int length = random.nextInt(maxLength + 1);
+		for (int i = 0; i < length; i++) {
+			text.append("abc".charAt(random.nextInt(3)));
+		}
+		return text.toString();
+	}
+
+	private static List<CategoryRule> rules(String... descriptions) {
+		List<CategoryRule> result = new ArrayList<>();
+		for (int i = 0; i < descriptions.length; i++) {
+			result.add(rule(i, descriptions[i], "", "withdrawal"));
+		}
+		return result;
+	}
+
+	private static CategoryRule rule(int id, String description, String iBAN, String type) {
+		return new CategoryRule(id, description, iBAN, type, 0, false);
+	}
+
+	private static List<Integer> ids(Integer... ids) {
+		return Arrays.asList(ids);
+	}
+
+	private static List<Integer> ids(List<CategoryRule> rules) {
+		List<Integer> result = new ArrayList<>();
+		for (CategoryRule rule : rules) {
+			result.add(rule.getId());
+		}
+		return result;
+	}
+}
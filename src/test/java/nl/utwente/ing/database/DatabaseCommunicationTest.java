@@ -0,0 +1,214 @@
+package nl.utwente.ing.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import nl.utwente.ing.model.Category;
+import nl.utwente.ing.model.CategoryRule;
+import nl.utwente.ing.model.Dates;
+import nl.utwente.ing.model.HistoryJob;
+import nl.utwente.ing.model.JobStatus;
+import nl.utwente.ing.model.PaymentRequest;
+import nl.utwente.ing.model.SavingGoal;
+import nl.utwente.ing.model.SessionStats;
+import nl.utwente.ing.model.Transaction;
+import nl.utwente.ing.model.TransactionType;
+
+/**
+ * Runs the data access code against the in-memory database.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "database.engine=memory")
+public class DatabaseCommunicationTest {
+
+	@Test
+	public void incrementalRollupsMatchRebuild() {
+		int sessionId = DatabaseCommunication.createSession();
+		Random random = new Random(3);
+		List<Integer> ids = new ArrayList<>();
+		long start = Dates.parse("2017-01-01T00:00Z");
+
+		// Appended transactions only change the last buckets
+		long date = start;
+		for (int i = 0; i < 100; i++) {
+			date += random.nextInt(4) * 86400L + random.nextInt(86400);
+			ids.add(DatabaseCommunication.addTransaction(randomTransaction(random, date), sessionId).getId());
+		}
+		assertRollupsMatchRebuild(sessionId);
+
+		// Earlier transactions recompute the buckets after them
+		for (int i = 0; i < 30; i++) {
+			long earlier = start + random.nextInt(300) * 86400L + random.nextInt(86400);
+			ids.add(DatabaseCommunication.addTransaction(randomTransaction(random, earlier), sessionId).getId());
+		}
+		assertRollupsMatchRebuild(sessionId);
+
+		for (int i = 0; i < 20; i++) {
+			int id = ids.remove(random.nextInt(ids.size()));
+			if (random.nextBoolean()) {
+				DatabaseCommunication.deleteTransaction(id, sessionId);
+			} else {
+				long other = start + random.nextInt(300) * 86400L;
+				DatabaseCommunication.updateTransaction(randomTransaction(random, other), id, sessionId);
+			}
+		}
+		assertRollupsMatchRebuild(sessionId);
+	}
+
+	@Test
+	public void deletedPaymentDoesNotCountForPaymentRequest() {
+		int sessionId = DatabaseCommunication.createSession();
+		PaymentRequest pr = new PaymentRequest();
+		pr.setDescription("rent");
+		pr.setDue_date("2018-03-01T00:00:00.000Z");
+		pr.setAmount(50.5);
+		pr.setNumber_of_requests(2);
+		DatabaseCommunication.addPaymentRequest(pr, sessionId);
+
+		long date = Dates.parse("2018-02-01T10:00Z");
+		int paid = DatabaseCommunication.addTransaction(transaction(date, 50.5, TransactionType.deposit), sessionId).getId();
+		DatabaseCommunication.deleteTransaction(paid, sessionId);
+		DatabaseCommunication.addTransaction(transaction(date + 60, 50.5, TransactionType.deposit), sessionId);
+
+		PaymentRequest open = DatabaseCommunication.getAllPaymentRequests(sessionId).get(0);
+		assertFalse(open.isFilled());
+		assertEquals(1, open.getTransactions().size());
+		assertTrue(DatabaseCommunication.getAllUnreadMessages(sessionId).isEmpty());
+
+		DatabaseCommunication.addTransaction(transaction(date + 120, 50.5, TransactionType.deposit), sessionId);
+		PaymentRequest filled = DatabaseCommunication.getAllPaymentRequests(sessionId).get(0);
+		assertTrue(filled.isFilled());
+		assertEquals(2, filled.getTransactions().size());
+		assertEquals(1, DatabaseCommunication.getAllUnreadMessages(sessionId).size());
+	}
+
+	@Test
+	public void savingGoalTotalsMatchRecompute() {
+		int sessionId = DatabaseCommunication.createSession();
+		DatabaseCommunication.addSavingGoal(new SavingGoal(0, "car", 20000, 5000, 0, 0), sessionId);
+
+		DatabaseCommunication.addTransaction(transaction(Dates.parse("2018-01-10T10:00Z"), 100, TransactionType.deposit), sessionId);
+		DatabaseCommunication.addTransaction(transaction(Dates.parse("2018-01-20T10:00Z"), 30, TransactionType.withdrawal), sessionId);
+		// Puts 50 aside on February 1 before the deposit
+		DatabaseCommunication.addTransaction(transaction(Dates.parse("2018-02-10T10:00Z"), 1000, TransactionType.deposit), sessionId);
+		// Puts 50 aside on March 1 before the withdrawal
+		DatabaseCommunication.addTransaction(transaction(Dates.parse("2018-03-10T10:00Z"), 1100, TransactionType.withdrawal), sessionId);
+
+		SessionStats incremental = DatabaseCommunication.getSessionStats(sessionId);
+		assertEquals(102000, incremental.getHigh());
+		assertEquals(-13000, incremental.getLow());
+		assertEquals(6, incremental.getCount());
+		assertEquals(10000, DatabaseCommunication.getAllSavingGoals(sessionId).get(0).returnBalanceCents());
+
+		DatabaseCommunication.inTransaction(() -> {
+			DatabaseCommunication.recomputeSessionStats(sessionId);
+			return null;
+		});
+		SessionStats recomputed = DatabaseCommunication.getSessionStats(sessionId);
+		assertEquals(incremental.getBalance(), recomputed.getBalance());
+		assertEquals(incremental.getHigh(), recomputed.getHigh());
+		assertEquals(incremental.getLow(), recomputed.getLow());
+		assertEquals(incremental.getFirstDate(), recomputed.getFirstDate());
+		assertEquals(incremental.getLastDate(), recomputed.getLastDate());
+		assertEquals(incremental.getCount(), recomputed.getCount());
+		assertRollupsMatchRebuild(sessionId);
+	}
+
+	@Test
+	public void historyJobSkipsInternalTransactions() throws Exception {
+		int sessionId = DatabaseCommunication.createSession();
+		DatabaseCommunication.addSavingGoal(new SavingGoal(0, "car", 20000, 3000, 0, 0), sessionId);
+		DatabaseCommunication.addTransaction(transaction(Dates.parse("2018-01-10T10:00Z"), 100, TransactionType.deposit), sessionId);
+		DatabaseCommunication.addTransaction(transaction(Dates.parse("2018-02-10T10:00Z"), 10, TransactionType.withdrawal), sessionId);
+		DatabaseCommunication.addTransaction(transaction(Dates.parse("2018-03-10T10:00Z"), 10, TransactionType.withdrawal), sessionId);
+
+		Category category = DatabaseCommunication.addCategory(new Category(0, "all"), sessionId);
+		// Matches every withdrawal, including the saving goal ones
+		CategoryRule rule = DatabaseCommunication.addCategoryRule(
+				new CategoryRule(0, "", "", "withdrawal", category.getId(), true), sessionId);
+		HistoryJob job = DatabaseCommunication.applyCategoryRuleOnHistory(rule, sessionId);
+		for (int i = 0; i < 500 && job.getStatus() != JobStatus.done; i++) {
+			Thread.sleep(10);
+		}
+
+		assertEquals(JobStatus.done, job.getStatus());
+		assertEquals(3, job.getTotal());
+		assertEquals(3, job.getProcessed());
+		assertEquals(2, job.getUpdated());
+		String sql = "SELECT count(*) AS count FROM transactions WHERE session = ? AND is_internal = 1 AND categoryID IS NULL";
+		assertEquals(2, (int) QueryTemplate.queryForObject(sql, rs -> rs.getInt("count"), sessionId));
+	}
+
+	@Test
+	public void readersDoNotSeeUncommittedWrites() throws Exception {
+		int sessionId = DatabaseCommunication.createSession();
+		String sql = "SELECT count(*) AS count FROM categories WHERE session = ?";
+		List<CompletableFuture<Integer>> read = new ArrayList<>();
+		try {
+			DatabaseCommunication.inTransaction(() -> {
+				QueryTemplate.update("INSERT INTO categories(id, name, session) VALUES(?,?,?)", 1_000_000 + sessionId, "rent", sessionId);
+				read.add(CompletableFuture.supplyAsync(() -> QueryTemplate.queryForObject(sql, rs -> rs.getInt("count"), sessionId)));
+				try {
+					read.get(0).get(200, TimeUnit.MILLISECONDS);
+					fail("read while the writer had not committed");
+				} catch (TimeoutException e) {
+					// The reader waits for the writer
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+				throw new DatabaseException(new SQLException("roll back"));
+			});
+			fail();
+		} catch (DatabaseException e) {
+			// The insert has been rolled back
+		}
+		assertEquals(0, (int) read.get(0).get(5, TimeUnit.SECONDS));
+	}
+
+	private static void assertRollupsMatchRebuild(int sessionId) {
+		List<String> incremental = rollups(sessionId);
+		assertFalse(incremental.isEmpty());
+		DatabaseCommunication.inTransaction(() -> {
+			DatabaseCommunication.rebuildBalanceRollups(sessionId);
+			return null;
+		});
+		assertEquals(rollups(sessionId), incremental);
+	}
+
+	private static Transaction randomTransaction(Random random, long unixTimestamp) {
+		return transaction(unixTimestamp, 1 + random.nextInt(500),
+				random.nextBoolean() ? TransactionType.deposit : TransactionType.withdrawal);
+	}
+
+	private static Transaction transaction(long unixTimestamp, double amount, TransactionType type) {
+		Transaction t = new Transaction();
+		t.setDate(Dates.format(unixTimestamp));
+		t.setAmount(amount);
+		t.setType(type);
+		t.setExternalIBAN("NL01");
+		t.setDescription("test");
+		return t;
+	}
+
+	private static List<String> rollups(int sessionId) {
+		String sql = "SELECT * FROM balanceRollups WHERE session = ? ORDER BY granularity, bucket_start";
+		return QueryTemplate.query(sql, rs -> rs.getString("granularity") + ":" + rs.getLong("bucket_start") + " "
+				+ rs.getLong("open") + " " + rs.getLong("close") + " " + rs.getLong("high") + " " + rs.getLong("low")
+				+ " " + rs.getLong("volume"), sessionId);
+	}
+}
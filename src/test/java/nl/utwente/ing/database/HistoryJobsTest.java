@@ -0,0 +1,78 @@
+package nl.utwente.ing.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import nl.utwente.ing.model.HistoryJob;
+import nl.utwente.ing.model.JobStatus;
+
+public class HistoryJobsTest {
+	private final HistoryJobs jobs = new HistoryJobs(50);
+
+	@After
+	public void shutdown() {
+		jobs.shutdown();
+	}
+
+	@Test
+	public void finishedJobIsKeptForTheRetentionPeriod() throws Exception {
+		HistoryJob job = new HistoryJob(1, 1);
+		run(job, JobStatus.done);
+		assertSame(job, jobs.get(1));
+
+		Thread.sleep(100);
+		assertNull(jobs.get(1));
+		assertEquals(0, jobs.size());
+	}
+
+	@Test
+	public void submitEvictsExpiredJobs() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			run(new HistoryJob(i, 1), i % 2 == 0 ? JobStatus.done : JobStatus.failed);
+		}
+		assertEquals(10, jobs.size());
+
+		Thread.sleep(100);
+		HistoryJob job = new HistoryJob(10, 1);
+		run(job, JobStatus.done);
+		assertEquals(1, jobs.size());
+		assertSame(job, jobs.get(10));
+	}
+
+	@Test
+	public void unfinishedJobIsKept() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		HistoryJob job = new HistoryJob(1, 1);
+		jobs.submit(job, j -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			j.setStatus(JobStatus.done);
+		});
+
+		Thread.sleep(100);
+		assertSame(job, jobs.get(1));
+		release.countDown();
+	}
+
+	/**
+	 * Runs a job that finishes with the given status and waits until it has.
+	 */
+	private void run(HistoryJob job, JobStatus status) throws InterruptedException {
+		CountDownLatch finished = new CountDownLatch(1);
+		jobs.submit(job, j -> {
+			j.setStatus(status);
+			finished.countDown();
+		});
+		finished.await(5, TimeUnit.SECONDS);
+	}
+}
@@ -0,0 +1,154 @@
+package nl.utwente.ing.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import nl.utwente.ing.model.Dates;
+import nl.utwente.ing.model.TimeInterval;
+
+public class RollupBuilderTest {
+	private static final int SESSION = 1;
+
+	@Test
+	public void singleTransactionOpensAllGranularities() {
+		RollupBuilder builder = new RollupBuilder(SESSION);
+		long date = Dates.parse("2018-03-14T15:09:26Z");
+		builder.add(-500, date);
+
+		Map<String, List<Long>> rows = toMap(builder.finish());
+		assertEquals(TimeInterval.values().length, rows.size());
+		assertEquals(Arrays.asList(0L, -500L, 0L, -500L, 500L),
+				rows.get("MONTH:" + Dates.parse("2018-03-01T00:00Z")));
+		assertEquals(Arrays.asList(0L, -500L, 0L, -500L, 500L),
+				rows.get("WEEK:" + Dates.parse("2018-03-12T00:00Z")));
+	}
+
+	@Test
+	public void transactionOnBucketBoundaryStartsNewBucket() {
+		RollupBuilder builder = new RollupBuilder(SESSION);
+		builder.add(1000, Dates.parse("2018-01-31T23:59:59Z"));
+		builder.add(-200, Dates.parse("2018-02-01T00:00:00Z"));
+
+		Map<String, List<Long>> rows = toMap(builder.finish());
+		assertEquals(Arrays.asList(0L, 1000L, 1000L, 0L, 1000L), rows.get("MONTH:" + Dates.parse("2018-01-01T00:00Z")));
+		assertEquals(Arrays.asList(1000L, 800L, 1000L, 800L, 200L), rows.get("MONTH:" + Dates.parse("2018-02-01T00:00Z")));
+		assertEquals(Arrays.asList(0L, 800L, 1000L, 0L, 1200L), rows.get("YEAR:" + Dates.parse("2018-01-01T00:00Z")));
+	}
+
+	@Test
+	public void fullBuildMatchesRecomputationPerBucket() {
+		Random random = new Random(17);
+		for (int run = 0; run < 20; run++) {
+			List<long[]> transactions = randomTransactions(random, 1 + random.nextInt(300));
+			RollupBuilder builder = new RollupBuilder(SESSION);
+			for (long[] t : transactions) {
+				builder.add(t[0], t[1]);
+			}
+			assertEquals(expected(transactions), toMap(builder.finish()));
+		}
+	}
+
+	@Test
+	public void partialBuildMatchesTailOfFullBuild() {
+		Random random = new Random(4);
+		for (int run = 0; run < 20; run++) {
+			List<long[]> transactions = randomTransactions(random, 1 + random.nextInt(300));
+			long from = transactions.get(random.nextInt(transactions.size()))[1];
+
+			// Same inputs as recomputeBalanceRollups: the balance before the scan and the transactions after it
+			long scanFrom = RollupBuilder.firstBucketStart(from);
+			long opening = 0;
+			List<long[]> scanned = new ArrayList<>();
+			for (long[] t : transactions) {
+				if (t[1] < scanFrom) {
+					opening += t[0];
+				} else {
+					scanned.add(t);
+				}
+			}
+			RollupBuilder builder = new RollupBuilder(SESSION, opening, from);
+			for (long[] t : scanned) {
+				builder.add(t[0], t[1]);
+			}
+
+			Map<String, List<Long>> tail = new TreeMap<>();
+			for (Map.Entry<String, List<Long>> entry : expected(transactions).entrySet()) {
+				String[] key = entry.getKey().split(":");
+				if (Long.parseLong(key[1]) >= builder.getFrom(TimeInterval.valueOf(key[0]))) {
+					tail.put(entry.getKey(), entry.getValue());
+				}
+			}
+			assertEquals(tail, toMap(builder.finish()));
+		}
+	}
+
+	/**
+	 * Transactions as signed amount and date, ordered by date, spread over a few years.
+	 */
+	private static List<long[]> randomTransactions(Random random, int count) {
+		long date = Dates.parse("2017-01-01T00:00Z");
+		List<long[]> result = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			// Mostly close together, sometimes on the same second or weeks apart
+			int step = random.nextInt(10);
+			date += step == 0 ? 0 : step < 8 ? random.nextInt(86400) : random.nextInt(60 * 86400);
+			long amount = (1 + random.nextInt(100000)) * (random.nextBoolean() ? 1 : -1);
+			result.add(new long[] { amount, date });
+		}
+		return result;
+	}
+
+	/**
+	 * Computes every bucket on its own: open is the balance before its first transaction, the others
+	 * follow from the transactions in the bucket.
+	 */
+	private static Map<String, List<Long>> expected(List<long[]> transactions) {
+		Map<String, long[]> buckets = new TreeMap<>();
+		for (TimeInterval granularity : TimeInterval.values()) {
+			long balance = 0;
+			for (long[] t : transactions) {
+				long before = balance;
+				balance += t[0];
+				String key = granularity.name() + ":" + granularity.truncate(t[1]);
+				long[] bucket = buckets.get(key);
+				if (bucket == null) {
+					bucket = new long[] { before, before, before, before, 0 };
+					buckets.put(key, bucket);
+				}
+				bucket[1] = balance;
+				bucket[2] = Math.max(bucket[2], balance);
+				bucket[3] = Math.min(bucket[3], balance);
+				bucket[4] += Math.abs(t[0]);
+			}
+		}
+		Map<String, List<Long>> result = new TreeMap<>();
+		for (Map.Entry<String, long[]> entry : buckets.entrySet()) {
+			long[] b = entry.getValue();
+			result.put(entry.getKey(), Arrays.asList(b[0], b[1], b[2], b[3], b[4]));
+		}
+		return result;
+	}
+
+	/**
+	 * Maps the rows to "granularity:bucket_start" keys with open, close, high, low and volume as value.
+	 */
+	private static Map<String, List<Long>> toMap(List<Object[]> rows) {
+		Map<String, List<Long>> result = new TreeMap<>();
+		for (Object[] row : rows) {
+			assertEquals(SESSION, row[0]);
+			String key = row[1] + ":" + row[2];
+			List<Long> value = Arrays.asList((Long) row[3], (Long) row[4], (Long) row[5], (Long) row[6], (Long) row[7]);
+			assertNull("duplicate bucket " + key, result.put(key, value));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,119 @@
+package nl.utwente.ing.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import nl.utwente.ing.model.Dates;
+import nl.utwente.ing.model.SavingGoal;
+
+public class SavingGoalProcessorTest {
+
+	@Test
+	public void monthStartsAreTheLatestMonthFirst() {
+		assertEquals(Arrays.asList(Dates.parse("2018-02-01T00:00Z"), Dates.parse("2018-01-01T00:00Z"),
+				Dates.parse("2017-12-01T00:00Z")),
+				SavingGoalProcessor.monthStarts(Dates.parse("2017-11-30T23:59Z"), Dates.parse("2018-02-10T12:00Z")));
+	}
+
+	@Test
+	public void noMonthStartsWithinTheSameMonthOrBefore() {
+		assertTrue(SavingGoalProcessor.monthStarts(Dates.parse("2018-02-01T00:00Z"), Dates.parse("2018-02-28T23:59Z")).isEmpty());
+		assertTrue(SavingGoalProcessor.monthStarts(Dates.parse("2018-03-05T00:00Z"), Dates.parse("2018-01-05T00:00Z")).isEmpty());
+	}
+
+	@Test
+	public void goalIsFilledWithTheRemainder() {
+		SavingGoal goal = new SavingGoal(0, "car", 10000, 3000, 0, 0);
+		SavingGoalProcessor processor = new SavingGoalProcessor(Arrays.asList(goal), 100000);
+		for (long monthStart : SavingGoalProcessor.monthStarts(Dates.parse("2018-01-15T00:00Z"), Dates.parse("2018-06-15T00:00Z"))) {
+			processor.process(monthStart);
+		}
+
+		List<Long> amounts = new ArrayList<>();
+		for (long[] allocation : processor.getAllocations()) {
+			amounts.add(allocation[1]);
+		}
+		assertEquals(Arrays.asList(3000L, 3000L, 3000L, 1000L), amounts);
+		assertEquals(10000, goal.returnBalanceCents());
+		assertEquals(Arrays.asList(goal), processor.getFilledGoals());
+	}
+
+	@Test
+	public void matchesPerGoalPerMonthProcessing() {
+		Random random = new Random(24);
+		for (int run = 0; run < 500; run++) {
+			List<SavingGoal> goals = randomGoals(random);
+			List<SavingGoal> copies = new ArrayList<>();
+			for (SavingGoal sg : goals) {
+				copies.add(new SavingGoal(sg.getId(), sg.getName(), sg.returnGoalCents(), sg.returnSavePerMonthCents(),
+						sg.returnMinBalanceRequiredCents(), sg.returnBalanceCents()));
+			}
+			long accountBalance = random.nextInt(200000) - 20000;
+			List<Long> monthStarts = SavingGoalProcessor.monthStarts(Dates.parse("2018-01-10T00:00Z"),
+					Dates.parse("2018-01-10T00:00Z") + random.nextInt(400) * 86400L);
+
+			SavingGoalProcessor processor = new SavingGoalProcessor(goals, accountBalance);
+			for (long monthStart : monthStarts) {
+				processor.process(monthStart);
+			}
+			List<String> allocations = new ArrayList<>();
+			for (long[] allocation : processor.getAllocations()) {
+				allocations.add(allocation[0] + ":" + allocation[1] + "@" + allocation[2]);
+			}
+			List<String> filled = new ArrayList<>();
+			for (SavingGoal sg : processor.getFilledGoals()) {
+				filled.add("" + sg.getId());
+			}
+
+			List<String> expectedFilled = new ArrayList<>();
+			assertEquals(expected(copies, accountBalance, monthStarts, expectedFilled), allocations);
+			assertEquals(expectedFilled, filled);
+			for (int i = 0; i < goals.size(); i++) {
+				assertEquals(copies.get(i).returnBalanceCents(), goals.get(i).returnBalanceCents());
+			}
+		}
+	}
+
+	/**
+	 * Puts money aside one goal and one month at a time, as the saving goals were applied before they
+	 * were processed in batches.
+	 */
+	private static List<String> expected(List<SavingGoal> savingGoals, long accountBalance, List<Long> crossings,
+			List<String> filled) {
+		List<String> allocations = new ArrayList<>();
+		for (int i = 0; i < crossings.size(); i++) {
+			for (SavingGoal sg : savingGoals) {
+				long sgBalance = sg.returnBalanceCents();
+				long perMonth = Math.min(sg.returnSavePerMonthCents(), sg.returnGoalCents() - sgBalance);
+				if (accountBalance >= sg.returnMinBalanceRequiredCents() && accountBalance >= perMonth && sgBalance <= sg.returnGoalCents() &&
+						perMonth > 0) {
+					allocations.add(sg.getId() + ":" + perMonth + "@" + crossings.get(i));
+					if (sgBalance + perMonth == sg.returnGoalCents()) {
+						filled.add("" + sg.getId());
+					}
+					sg.addToBalance(perMonth);
+					accountBalance -= perMonth;
+				}
+			}
+		}
+		return allocations;
+	}
+
+	private static List<SavingGoal> randomGoals(Random random) {
+		List<SavingGoal> goals = new ArrayList<>();
+		int count = random.nextInt(5);
+		for (int i = 0; i < count; i++) {
+			long goal = 100 + random.nextInt(50000);
+			long balance = random.nextInt(4) == 0 ? random.nextInt((int) goal + 1) : 0;
+			goals.add(new SavingGoal(i, "goal" + i, goal, 100 + random.nextInt(10000), random.nextInt(80000), balance));
+		}
+		return goals;
+	}
+}
@@ -0,0 +1,30 @@
+package nl.utwente.ing.model;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class MessageTest {
+
+	@Test
+	public void keepsUnparseableDate() {
+		Message message = new Message();
+		message.setDate("yesterday");
+		assertEquals("yesterday", message.getDate());
+	}
+
+	@Test
+	public void parsesDate() {
+		Message message = new Message();
+		message.setDate("2018-03-01T10:00:00.000Z");
+		assertEquals("2018-03-01T10:00:00.000Z", message.getDate());
+		assertEquals(Dates.parse("2018-03-01T10:00Z"), message.returnUnixTimestamp());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void unparseableDateHasNoTimestamp() {
+		Message message = new Message();
+		message.setDate("yesterday");
+		message.returnUnixTimestamp();
+	}
+}